@@ -0,0 +1,1021 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+
+/**
+ * Base class for two dimensional structures of doubles, indexed by a pair of IndexSets.
+ * 
+ * Holds the index sets and the cached aggregates (totals, weighted totals, max/min) and
+ * computes them in terms of get( int, int ), so that subclasses only have to supply
+ * storage. DoubleMatrix is the standard, array backed, implementation.
+ * 
+ * The int arguments to get, put and add are storage positions, as given by the index sets'
+ * getSlots(). These are just the key indices unless an index set is compact.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public abstract class AbstractDoubleMatrix<T extends Indexed, S extends Indexed>
+{
+	int numRows;
+	int numCols;
+	IndexSet<T> colIndexes;
+	IndexSet<S> rowIndexes;
+	double initial = 0;
+	DoubleMap<T> colTotals;
+	DoubleMap<S> rowTotals;
+	boolean dirtyTotal;
+	boolean dirtyMaxMin;
+	boolean dirtyWeightedTotal;
+	double total;
+	double average;
+	T maxCol;
+	T minCol;
+	S maxRow;
+	S minRow;
+	NumberMap<T> colWeightings;
+	NumberMap<S> rowWeightings;
+	DoubleMap<T> colWeightedTotals;
+	DoubleMap<S> rowWeightedTotals;
+	int[] colSlots;
+	int[] rowSlots;
+	int[] colSlotTable;
+	int[] rowSlotTable;
+	double vMin;
+	double vMax;
+	/**
+	 * If true, single cell writes apply their change to the totals directly instead of dirtying them
+	 */
+	boolean incrementalTotals = false;
+	int updatesSinceResum = 0;
+	/**
+	 * Number of incremental updates after which the totals are recomputed from scratch.
+	 * Defaults to the number of cells, so the rescan costs O(1) per update
+	 */
+	int resumInterval;
+	/**
+	 * Weightings by storage position, as used in the last aggregation pass
+	 */
+	double[] colWeights;
+	double[] rowWeights;
+	/**
+	 * Target number of cells in each block of a parallel aggregation, and the most blocks to use
+	 */
+	static final int BLOCK_CELLS = 1 << 16;
+	static final int MAX_BLOCKS = 256;
+	/**
+	 * Matrices with at least this many cells are aggregated in parallel
+	 */
+	public static final long DEFAULT_PARALLEL_THRESHOLD = 1 << 21;
+	long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	ForkJoinPool pool;
+	
+	public AbstractDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( colIndexes ), new ArrayIndexSet<S>( rowIndexes ), initial );
+	}
+	
+	/**
+	 * Sets up the indexes and aggregates. Subclasses should allocate their storage
+	 * and then call clear()
+	 * @param colIndexes
+	 * @param rowIndexes
+	 * @param initial
+	 */
+	public AbstractDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial )
+	{
+		this.colIndexes = colIndexes;
+		this.rowIndexes = rowIndexes;
+		this.initial = initial;
+		numRows = rowIndexes.getStorageSize();
+		numCols = colIndexes.getStorageSize();
+		colSlots = colIndexes.getSlots();
+		rowSlots = rowIndexes.getSlots();
+		colSlotTable = colIndexes.getSlotTable();
+		rowSlotTable = rowIndexes.getSlotTable();
+		colTotals = new DoubleMap<T>( colIndexes );
+		rowTotals = new DoubleMap<S>( rowIndexes );
+		colWeightedTotals = new DoubleMap<T>( colIndexes );
+		rowWeightedTotals = new DoubleMap<S>( rowIndexes );
+		resumInterval = (int)Math.min( Integer.MAX_VALUE, Math.max( 1L, (long)numCols * numRows ) );
+	}
+	
+	public abstract double get( int col, int row );
+	public abstract void put( int col, int row, double value );
+	public abstract void add( int col, int row, double amount );
+	public abstract void clear();
+	/**
+	 * Creates a new matrix with the same structure (but no data)
+	 * @return
+	 */
+	public abstract AbstractDoubleMatrix<T, S> duplicate();
+	
+	public IndexSet<T> cols() { return colIndexes; }
+	public IndexSet<S> rows() { return rowIndexes; }
+	
+	/**
+	 * @param col
+	 * @return the storage position of the column
+	 */
+	final int colPos( T col )
+	{
+		return colSlotTable == null ? col.getIndex() : colSlotTable[col.getIndex()];
+	}
+	
+	/**
+	 * @param row
+	 * @return the storage position of the row
+	 */
+	final int rowPos( S row )
+	{
+		return rowSlotTable == null ? row.getIndex() : rowSlotTable[row.getIndex()];
+	}
+	
+	/**
+	 * True if other stores its cells at the same positions as this, so they can be
+	 * copied across by position
+	 * @param other
+	 * @return
+	 */
+	boolean sameLayout( AbstractDoubleMatrix<?,?> other )
+	{
+		return ( other.colIndexes == colIndexes || ( colSlotTable == null && other.colSlotTable == null ) )
+			&& ( other.rowIndexes == rowIndexes || ( rowSlotTable == null && other.rowSlotTable == null ) );
+	}
+	
+	public double get( T col, S row )
+	{
+		return get( colPos( col ), rowPos( row ) );
+	}
+	
+	public void put( T col, S row, double value )
+	{
+		put( colPos( col ), rowPos( row ), value );
+	}
+	
+	public void increment( T col, S row )
+	{
+		add( col, row, 1 );
+	}
+	
+	public void add( T col, S row, double amount )
+	{
+		add( colPos( col ), rowPos( row ), amount );
+	}
+	
+	public int size()
+	{
+		return (numCols) * (numRows);
+	}
+	
+	public double getTotal()
+	{
+		if( dirtyTotal ) {
+			updateAggregates();
+		}
+		return total;
+	}
+	
+	public double getRowTotal( S row )
+	{
+		if( dirtyTotal ) {
+			updateAggregates();
+		}
+		return rowTotals.get( row );
+	}
+	
+	public double getColumnTotal( T col )
+	{
+		if( dirtyTotal ) {
+			updateAggregates();
+		}
+		return colTotals.get( col );
+	}
+	
+	public double getAverage()
+	{
+		return getTotal() / size();
+	}
+	
+	public double getColAverage( T col )
+	{
+		return getColumnTotal( col ) / numRows;
+	}
+	
+	public double getRowAverage( S row )
+	{
+		return getRowTotal( row ) / numCols;
+	}
+	
+	public double getWeightedColAverage( T col )
+	{
+		if( rowWeightings != null ) {
+			return getWeightedColTotal( col );
+		}
+		return getColAverage( col );
+	}
+	
+	public double getWeightedRowAverage( S row )
+	{
+		if( colWeightings != null ) {
+			return getWeightedRowTotal( row ) / colWeightings.getDoubleTotal();
+		}
+		return getRowAverage( row );
+	}
+	
+	public DoubleMap<T> getWeightedColTotals()
+	{
+		if( dirtyWeightedTotal ) {
+			updateAggregates();
+		}
+		return colWeightedTotals;
+	}
+	
+	public double getWeightedColTotal( T col )
+	{
+		if( dirtyWeightedTotal ) {
+			updateAggregates();
+		}
+		return colWeightedTotals.get( col );
+	}
+	
+	public DoubleMap<S> getWeightedRowTotals()
+	{
+		if( dirtyWeightedTotal ) {
+			updateAggregates();
+		}
+		return rowWeightedTotals;
+	}
+	public double getWeightedRowTotal( S row )
+	{
+		if( dirtyWeightedTotal ) {
+			updateAggregates();
+		}
+		return rowWeightedTotals.get( row );
+	}
+	
+	public T getMaxCol()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return maxCol;
+	}
+	
+	public T getMinCol()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return minCol;
+	}
+	
+	public S getMaxRow()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return maxRow;
+	}
+	
+	public S getMinRow()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return minRow;
+	}
+	
+	public double getMax()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return vMax;
+	}
+	
+	public double getMin()
+	{
+		if( dirtyMaxMin ) {
+			updateAggregates();
+		}
+		return vMin;
+	}
+	
+	/**
+	 * Recomputes every cached aggregate (totals, weighted totals, max/min) in a single pass
+	 * over the cells
+	 */
+	void updateAggregates()
+	{
+		colTotals.clear();
+		rowTotals.clear();
+		colWeightedTotals.clear();
+		rowWeightedTotals.clear();
+		colWeights = weights( colWeightings, colIndexes, numCols );
+		rowWeights = weights( rowWeightings, rowIndexes, numRows );
+		Aggregate a = new Aggregate( colTotals.data, colWeightedTotals.data, rowTotals.data, rowWeightedTotals.data );
+		if( (long)colSlots.length * rowSlots.length >= parallelThreshold ) {
+			aggregateParallel( a );
+		} else {
+			aggregate( a, 0, colSlots.length, 0, rowSlots.length );
+		}
+		store( a );
+		updatesSinceResum = 0;
+	}
+	
+	/**
+	 * Accumulates the block of cells with column positions colFrom (inclusive) to colTo (exclusive)
+	 * in colSlots and row positions rowFrom to rowTo in rowSlots into a.
+	 * Subclasses can override this to read their storage directly.
+	 */
+	void aggregate( Aggregate a, int colFrom, int colTo, int rowFrom, int rowTo )
+	{
+		for( int i = colFrom; i < colTo; i++ )
+		{
+			int c = colSlots[i];
+			double cw = colWeights[c];
+			double sum = 0;
+			double weighted = 0;
+			for( int j = rowFrom; j < rowTo; j++ )
+			{
+				int r = rowSlots[j];
+				double value = get( c, r );
+				double w = value * rowWeights[r] * cw;
+				sum += value;
+				weighted += w;
+				a.add( i, j, r, value, w );
+			}
+			a.colTotals[c] += sum;
+			a.colWeightedTotals[c] += weighted;
+			a.total += sum;
+		}
+	}
+	
+	/**
+	 * Splits the matrix into blocks along its longer dimension and aggregates them on the pool.
+	 * Each block writes its share of the long dimension's totals directly, and keeps its own
+	 * partial totals for the short dimension. Partial results are merged in block order, and the
+	 * blocks only depend on the matrix size, so results are the same for any number of threads
+	 * (though they may differ in the last bits from a sequential pass).
+	 */
+	void aggregateParallel( final Aggregate a )
+	{
+		final boolean byRows = rowSlots.length >= colSlots.length;
+		int length = byRows ? rowSlots.length : colSlots.length;
+		int across = Math.max( 1, byRows ? colSlots.length : rowSlots.length );
+		int blockLength = Math.max( 1, BLOCK_CELLS / across );
+		int blocks = Math.min( MAX_BLOCKS, ( length + blockLength - 1 ) / blockLength );
+		blockLength = ( length + blocks - 1 ) / Math.max( 1, blocks );
+		Aggregate[] parts = new Aggregate[blocks];
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>( blocks );
+		for( int b = 0; b < blocks; b++ )
+		{
+			final int from = b * blockLength;
+			final int to = Math.min( length, from + blockLength );
+			final Aggregate part = byRows
+					? new Aggregate( new double[numCols], new double[numCols], a.rowTotals, a.rowWeightedTotals )
+					: new Aggregate( a.colTotals, a.colWeightedTotals, new double[numRows], new double[numRows] );
+			parts[b] = part;
+			tasks.add( getPool().submit( () -> {
+				if( byRows ) {
+					aggregate( part, 0, colSlots.length, from, to );
+				} else {
+					aggregate( part, from, to, 0, rowSlots.length );
+				}
+			} ) );
+		}
+		for( ForkJoinTask<?> t : tasks ) {
+			t.join();
+		}
+		for( Aggregate part : parts ) {
+			a.merge( part );
+		}
+	}
+	
+	/**
+	 * Sets the number of cells above which aggregates are computed in parallel. 0 forces
+	 * parallel aggregation, Long.MAX_VALUE turns it off
+	 * @param cells
+	 */
+	public void setParallelThreshold( long cells )
+	{
+		parallelThreshold = cells;
+	}
+	
+	/**
+	 * Sets the pool used for parallel aggregation. Defaults to the common pool
+	 * @param pool
+	 */
+	public void setPool( ForkJoinPool pool )
+	{
+		this.pool = pool;
+	}
+	
+	ForkJoinPool getPool()
+	{
+		return pool == null ? ForkJoinPool.commonPool() : pool;
+	}
+	
+	/**
+	 * Stores the results of a completed aggregation
+	 * @param a
+	 */
+	void store( Aggregate a )
+	{
+		total = a.total;
+		vMax = a.vMax;
+		vMin = a.vMin;
+		if( a.maxI >= 0 )
+		{
+			maxCol = colIndexes.get( a.maxI );
+			maxRow = rowIndexes.get( a.maxJ );
+		}
+		if( a.minI >= 0 )
+		{
+			minCol = colIndexes.get( a.minI );
+			minRow = rowIndexes.get( a.minJ );
+		}
+		colTotals.dirty();
+		rowTotals.dirty();
+		colWeightedTotals.dirty();
+		rowWeightedTotals.dirty();
+		dirtyTotal = false;
+		dirtyMaxMin = false;
+		dirtyWeightedTotal = false;
+	}
+	
+	/**
+	 * Forces the weighted totals to be recomputed, e.g. if the weightings have changed
+	 */
+	public void updateWeightedTotals()
+	{
+		updateAggregates();
+	}
+	
+	/**
+	 * Looks up the weighting for each key once, laid out by storage position. All ones if there
+	 * are no weightings
+	 */
+	static <K extends Indexed> double[] weights( UnmodifiableNumberMap<K> weightings, IndexSet<K> keys, int length )
+	{
+		double[] w = new double[length];
+		if( weightings == null )
+		{
+			Arrays.fill( w, 1 );
+			return w;
+		}
+		int[] slots = keys.getSlots();
+		for( int i = 0; i < slots.length; i++ ) {
+			w[slots[i]] = weightings.getDouble( keys.get( i ) );
+		}
+		return w;
+	}
+	
+	/**
+	 * Matrix-vector product: target[row] = sum over columns of get( col, row ) * colVector[col]
+	 * @param colVector
+	 * @param target
+	 */
+	public void multiplyInto( UnmodifiableNumberMap<T> colVector, DoubleMap<S> target )
+	{
+		double[] v = vector( colVector, colIndexes, numCols );
+		double[] y = output( target, rowIndexes, numRows, v );
+		multiply( v, y );
+		finish( y, target, rowIndexes );
+	}
+	
+	public DoubleMap<S> multiply( UnmodifiableNumberMap<T> colVector )
+	{
+		DoubleMap<S> ret = new DoubleMap<S>( rowIndexes );
+		multiplyInto( colVector, ret );
+		return ret;
+	}
+	
+	/**
+	 * Vector-matrix product: target[col] = sum over rows of rowVector[row] * get( col, row )
+	 * @param rowVector
+	 * @param target
+	 */
+	public void leftMultiplyInto( UnmodifiableNumberMap<S> rowVector, DoubleMap<T> target )
+	{
+		double[] v = vector( rowVector, rowIndexes, numRows );
+		double[] y = output( target, colIndexes, numCols, v );
+		leftMultiply( v, y );
+		finish( y, target, colIndexes );
+	}
+	
+	public DoubleMap<T> leftMultiply( UnmodifiableNumberMap<S> rowVector )
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( colIndexes );
+		leftMultiplyInto( rowVector, ret );
+		return ret;
+	}
+	
+	/**
+	 * Weighted sum of all cells: sum of colWeights[col] * get( col, row ) * rowWeights[row]
+	 * @param colWeights
+	 * @param rowWeights
+	 * @return
+	 */
+	public double bilinear( UnmodifiableNumberMap<T> colWeights, UnmodifiableNumberMap<S> rowWeights )
+	{
+		double[] cw = vector( colWeights, colIndexes, numCols );
+		double[] y = new double[numCols];
+		leftMultiply( vector( rowWeights, rowIndexes, numRows ), y );
+		double sum = 0;
+		for( int c : colSlots ) {
+			sum += cw[c] * y[c];
+		}
+		return sum;
+	}
+	
+	/**
+	 * y[r] += get( c, r ) * v[c] for all keys, with v and y laid out by storage position.
+	 * Subclasses can override this to use their storage directly
+	 */
+	void multiply( double[] v, double[] y )
+	{
+		for( int c : colSlots )
+		{
+			double a = v[c];
+			for( int r : rowSlots ) {
+				y[r] += get( c, r ) * a;
+			}
+		}
+	}
+	
+	/**
+	 * y[c] = sum of v[r] * get( c, r ) for all keys, with v and y laid out by storage position.
+	 * Subclasses can override this to use their storage directly
+	 */
+	void leftMultiply( double[] v, double[] y )
+	{
+		for( int c : colSlots )
+		{
+			double sum = 0;
+			for( int r : rowSlots ) {
+				sum += get( c, r ) * v[r];
+			}
+			y[c] = sum;
+		}
+	}
+	
+	/**
+	 * The values of v laid out by storage position for keys. Uses v's own array if it's a
+	 * DoubleMap with the same layout
+	 */
+	@SuppressWarnings("unchecked")
+	static <K extends Indexed> double[] vector( UnmodifiableNumberMap<K> v, IndexSet<K> keys, int length )
+	{
+		if( v instanceof DoubleMap )
+		{
+			DoubleMap<K> d = (DoubleMap<K>)v;
+			if( sameLayout( d, keys, length ) )
+			{
+				d.merge();
+				return d.data;
+			}
+		}
+		return weights( v, keys, length );
+	}
+	
+	/**
+	 * An array to accumulate results for keys in: target's own, if it has the same layout and
+	 * isn't also the input (e.g. for m.multiplyInto( v, v )), otherwise a new one
+	 */
+	static <K extends Indexed> double[] output( DoubleMap<K> target, IndexSet<K> keys, int length, double[] input )
+	{
+		if( target.data != input && sameLayout( target, keys, length ) )
+		{
+			target.merge();
+			target.writingAll();
+			for( int i : keys.getSlots() ) {
+				target.data[i] = 0;
+			}
+			return target.data;
+		}
+		return new double[length];
+	}
+	
+	static <K extends Indexed> void finish( double[] y, DoubleMap<K> target, IndexSet<K> keys )
+	{
+		if( y == target.data )
+		{
+			target.dirty();
+			return;
+		}
+		int[] slots = keys.getSlots();
+		for( int i = 0; i < slots.length; i++ ) {
+			target.put( keys.get( i ), y[slots[i]] );
+		}
+	}
+	
+	static boolean sameLayout( DoubleMap<?> map, IndexSet<?> keys, int length )
+	{
+		return map.indexes == keys || ( map.slotTable == null && keys.getSlotTable() == null && map.data.length >= length );
+	}
+	
+	/**
+	 * Results of aggregating a block of cells. Totals are laid out by storage position, and may
+	 * be shared with other blocks which cover different rows or columns. The max and min are
+	 * recorded by their position (i,j) in the column and row key lists. Ties go to the
+	 * earliest position in column-major order, whatever order the cells were visited in.
+	 */
+	static class Aggregate
+	{
+		double total;
+		double[] colTotals;
+		double[] colWeightedTotals;
+		double[] rowTotals;
+		double[] rowWeightedTotals;
+		double vMax = -Double.MAX_VALUE;
+		double vMin = Double.MAX_VALUE;
+		int maxI = -1, maxJ = -1, minI = -1, minJ = -1;
+		
+		Aggregate( double[] colTotals, double[] colWeightedTotals, double[] rowTotals, double[] rowWeightedTotals )
+		{
+			this.colTotals = colTotals;
+			this.colWeightedTotals = colWeightedTotals;
+			this.rowTotals = rowTotals;
+			this.rowWeightedTotals = rowWeightedTotals;
+		}
+		
+		final void add( int i, int j, int r, double value, double weighted )
+		{
+			rowTotals[r] += value;
+			rowWeightedTotals[r] += weighted;
+			extremes( i, j, value );
+		}
+		
+		final void extremes( int i, int j, double value )
+		{
+			if( value > vMax || ( value == vMax && before( i, j, maxI, maxJ ) ) )
+			{
+				vMax = value;
+				maxI = i;
+				maxJ = j;
+			}
+			if( value < vMin || ( value == vMin && before( i, j, minI, minJ ) ) )
+			{
+				vMin = value;
+				minI = i;
+				minJ = j;
+			}
+		}
+		
+		/**
+		 * Adds in the results of another block. Totals arrays shared with this one are already
+		 * up to date
+		 * @param o
+		 */
+		void merge( Aggregate o )
+		{
+			total += o.total;
+			addArray( o.colTotals, colTotals );
+			addArray( o.colWeightedTotals, colWeightedTotals );
+			addArray( o.rowTotals, rowTotals );
+			addArray( o.rowWeightedTotals, rowWeightedTotals );
+			if( o.maxI >= 0 && ( o.vMax > vMax || ( o.vMax == vMax && before( o.maxI, o.maxJ, maxI, maxJ ) ) ) )
+			{
+				vMax = o.vMax;
+				maxI = o.maxI;
+				maxJ = o.maxJ;
+			}
+			if( o.minI >= 0 && ( o.vMin < vMin || ( o.vMin == vMin && before( o.minI, o.minJ, minI, minJ ) ) ) )
+			{
+				vMin = o.vMin;
+				minI = o.minI;
+				minJ = o.minJ;
+			}
+		}
+		
+		static void addArray( double[] source, double[] target )
+		{
+			if( source != target ) {
+				FastdataUtilities.add( source, target, target.length );
+			}
+		}
+		
+		static boolean before( int i, int j, int i2, int j2 )
+		{
+			return i < i2 || ( i == i2 && j < j2 );
+		}
+	}
+	
+	
+	/**
+	 * Called by subclasses after changing a single cell by delta. In incremental mode this
+	 * updates the row, column and grand totals (and weighted totals) in place; otherwise,
+	 * or if the change can't be applied safely, it just dirties everything.
+	 * Max and min always need a rescan.
+	 * @param col storage position of the column
+	 * @param row storage position of the row
+	 * @param delta
+	 */
+	void changed( int col, int row, double delta )
+	{
+		if( ! incrementalTotals || dirtyTotal || dirtyWeightedTotal || Double.isInfinite( delta ) || Double.isNaN( delta )
+				|| ++updatesSinceResum >= resumInterval )
+		{
+			dirty();
+			return;
+		}
+		total += delta;
+		colTotals.writing( col );
+		rowTotals.writing( row );
+		colTotals.data[col] += delta;
+		rowTotals.data[row] += delta;
+		double weighted = delta * rowWeights[row] * colWeights[col];
+		colWeightedTotals.writing( col );
+		rowWeightedTotals.writing( row );
+		colWeightedTotals.data[col] += weighted;
+		rowWeightedTotals.data[row] += weighted;
+		colTotals.dirty();
+		rowTotals.dirty();
+		colWeightedTotals.dirty();
+		rowWeightedTotals.dirty();
+		dirtyMaxMin = true;
+	}
+	
+	/**
+	 * Switches incremental maintenance of the totals on or off. When on, put() and add() apply
+	 * their change to the affected row and column totals, the grand total and the weighted totals,
+	 * so total queries don't trigger a rescan of the matrix. Bulk operations and changes to the
+	 * weightings still cause a full recompute, as does every resumInterval updates, to stop
+	 * rounding errors building up.
+	 * @param incremental
+	 */
+	public void setIncrementalTotals( boolean incremental )
+	{
+		incrementalTotals = incremental;
+		dirty();
+	}
+	
+	public boolean isIncrementalTotals()
+	{
+		return incrementalTotals;
+	}
+	
+	/**
+	 * Sets how many incremental updates can be applied before the totals are recomputed
+	 * @param interval
+	 */
+	public void setResumInterval( int interval )
+	{
+		resumInterval = Math.max( 1, interval );
+	}
+	
+	public void dirty()
+	{
+		dirtyTotal = true;
+		dirtyMaxMin = true;
+		dirtyWeightedTotal = true;
+	}
+	
+	public void copyInto( AbstractDoubleMatrix<T,S> target )
+	{
+		if( sameLayout( target ) )
+		{
+			for( int c : colSlots ) {
+				for( int r : rowSlots ) {
+					target.put( c, r, get( c, r ) );
+				}
+			}
+			return;
+		}
+		for( T col : colIndexes ) {
+			for( S row : rowIndexes ) {
+				target.put(col, row, get( col, row ) );
+			}
+		} 
+	}
+	
+	public void copyFrom( AbstractDoubleMatrix<T,S> source )
+	{
+		source.copyInto( this );
+	}
+	
+	public void addInto( AbstractDoubleMatrix<T,S> target )
+	{
+		if( sameLayout( target ) )
+		{
+			for( int c : colSlots ) {
+				for( int r : rowSlots ) {
+					target.add( c, r, get( c, r ) );
+				}
+			}
+			return;
+		}
+		for( T col : colIndexes ) {
+			for( S row : rowIndexes ) {
+				target.add(col, row, get( col, row ) );
+			}
+		} 
+	}
+	
+	public void copyInto( Map<T, Map<S, Double>> target )
+	{
+		for( T col : colIndexes )
+		{
+			// TODO check if LinkedHashMap required
+			if (!target.containsKey(col)) {
+				target.put( col, new LinkedHashMap<S, Double>() );
+			}
+			for( S row : rowIndexes ) {
+				target.get( col ).put( row, get( col, row ) );
+			}
+		}
+	}
+	
+	public void copyFrom( Map<? extends T, Map<? extends S, Double>> source )
+	{
+		for( T col : colIndexes )
+		{
+			if( ! colIndexes.containsKey( col )) {
+				continue;
+			}
+			for( S row : rowIndexes )
+			{
+				if( ! rowIndexes.containsKey( row )) {
+					continue;
+				}
+					put(col, row, source.get( col ).get( row ) );
+			}
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return toMap().toString();
+	}
+	
+	public Map<T, Map<S,Double>> toMap()
+	{
+		// TODO check if LinkedHashMap required
+		Map<T, Map<S, Double>> map = new LinkedHashMap<T, Map<S, Double>>();
+		copyInto( map );
+		return map;
+	}
+	
+	public void setColumnWeightings( NumberMap<T> colW )
+	{
+		dirtyWeightedTotal = true;
+		colWeightings = colW;
+	}
+	
+	public void setRowWeightings( NumberMap<S> rowW )
+	{
+		dirtyWeightedTotal = true;
+		rowWeightings = rowW;
+	}
+
+	public int getNumCols()
+	{
+		return numCols;
+	}
+
+	public int getNumRows()
+	{
+		return numRows;
+	}
+	
+	public DoubleMap<S> getColumn( T column )
+	{
+		DoubleMap<S> col = new DoubleMap<S>( rowIndexes );
+		int c = colPos( column );
+		for( int r : rowSlots ) {
+			col.data[r] = get( c, r );
+		}
+		col.dirty();
+		return col;
+	}
+	
+	public DoubleMap<T> getRow( S row )
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( colIndexes );
+		int r = rowPos( row );
+		for( int c : colSlots ) {
+			ret.data[c] = get( c, r );
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * A live, writable view of the column: no data is copied, and changes go straight to the matrix
+	 * @param column
+	 * @return
+	 */
+	public ColumnView<T, S> getColumnView( T column )
+	{
+		return new ColumnView<T, S>( this, column, true );
+	}
+	
+	/**
+	 * A live view of the column which can't be used to modify the matrix
+	 * @param column
+	 * @return
+	 */
+	public ColumnView<T, S> getReadOnlyColumnView( T column )
+	{
+		return new ColumnView<T, S>( this, column, false );
+	}
+	
+	/**
+	 * A live, writable view of the row: no data is copied, and changes go straight to the matrix
+	 * @param row
+	 * @return
+	 */
+	public RowView<T, S> getRowView( S row )
+	{
+		return new RowView<T, S>( this, row, true );
+	}
+	
+	/**
+	 * A live view of the row which can't be used to modify the matrix
+	 * @param row
+	 * @return
+	 */
+	public RowView<T, S> getReadOnlyRowView( S row )
+	{
+		return new RowView<T, S>( this, row, false );
+	}
+	
+	public T getColKey( int index ) { return colIndexes.get( index ); }
+	public S getRowKey( int index ) { return rowIndexes.get( index ); }
+	
+	public String prettyPrint()
+	{
+		String colTitle = "RowNames";
+		int width = colTitle.length();
+		int pres = 1;
+		double max = getMax();
+		double min = getMin();
+		System.out.println("Max: " + max + " Min: " + min);
+		if( abs(max )< 1 || ( abs(min) < 1 && abs(min) > 0 )) {
+			pres = width-3;
+		}
+		for( T c : colIndexes ) {
+			width = max(width,(c+"").length());
+		}
+		for( S r : rowIndexes ) {
+			width = max(width,(r+"").length());
+		}
+		System.out.println("Width: " + width);
+		String stringF = "| %"+width+"s ";
+		String doubleF = "| %"+width+"."+pres+"f ";
+		//String doubleF = "%9.3f";
+		String lineEnd = " |\n";
+		StringBuffer out = new StringBuffer(String.format( stringF, "Rownames" ));
+		for( T c : colIndexes ) {
+			out.append( String.format( stringF, c.toString() ) );
+		}
+		out.append(lineEnd);
+		for( S r : rowIndexes ) 
+		{
+			out.append(String.format( stringF, r.toString()));
+			for( T c : colIndexes ) {
+				out.append( String.format( doubleF, get(c,r) ) );
+			}
+			out.append(lineEnd);
+		}
+		return out.toString();
+	}
+}
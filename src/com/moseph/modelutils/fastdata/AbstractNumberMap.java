@@ -5,9 +5,13 @@ package com.moseph.modelutils.fastdata;
 import static java.lang.Math.abs;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
+import de.cesr.uranus.core.UranusRandomService;
+
 /**
  * Intended to form a Map-like structure for storing ints, which avoides autoboxing
  * and takes advantage of structure in the key set (consecutive indices!)
@@ -23,10 +27,25 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 	boolean dirtyTotal;
 	boolean dirtyAverage;
 	boolean dirtyMaxMin;
+	boolean dirtySampler = true;
+	/**
+	 * If true, writes apply their change to the total directly instead of dirtying it
+	 */
+	boolean incrementalTotal = false;
 	double average;
 	T max;
 	T min;
 	int maxIndex = 0;
+	/**
+	 * Storage slot of each key, in iteration order
+	 */
+	int[] slots;
+	/**
+	 * Maps indices to storage slots, or null if they're the same thing
+	 */
+	int[] slotTable;
+	AliasTable<T> sampler;
+	boolean samplerAllowsNull;
 
 	public AbstractNumberMap( Collection<? extends T> indexes )
 	{
@@ -37,6 +56,17 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 	{
 		this.indexes = indexes;
 		maxIndex = indexes.getMaxIndex();
+		slots = indexes.getSlots();
+		slotTable = indexes.getSlotTable();
+	}
+	
+	/**
+	 * @param key
+	 * @return the position of key in the backing storage
+	 */
+	final int pos( T key )
+	{
+		return slotTable == null ? key.getIndex() : slotTable[key.getIndex()];
 	}
 	
 	public abstract double getDouble( T key );
@@ -54,7 +84,7 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 	
 	public int size()
 	{
-		return maxIndex+1;
+		return indexes.getStorageSize();
 	}
 	
 	public double getAverage()
@@ -100,11 +130,30 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 		return indexes;
 	}
 	
+	/**
+	 * Switches incremental maintenance of the total on or off. When on, single element
+	 * writes update the total as they go, so getTotal() and getAverage() don't have to
+	 * re-sum the map after every change. Bulk operations still dirty the total.
+	 * Only DoubleMap and IntMap make use of this; other maps always re-sum lazily.
+	 * @param incremental
+	 */
+	public void setIncrementalTotal( boolean incremental )
+	{
+		incrementalTotal = incremental;
+		dirty();
+	}
+	
+	public boolean isIncrementalTotal()
+	{
+		return incrementalTotal;
+	}
+	
 	void dirty()
 	{
 		dirtyTotal = true;
 		dirtyAverage = true;
 		dirtyMaxMin = true;
+		dirtySampler = true;
 	}
 	
 	public void copyInto( NumberMap<T> target )
@@ -151,6 +200,12 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 			target.putDouble( key, getDouble( key ) - subtractor.getDouble( key ));
 	}
 	
+	/**
+	 * Note that this doesn't draw a random number: it gives the first key whose running total
+	 * is at least zero, which is normally just the first key. Use
+	 * sample( UranusRandomService, String ) for a proper random draw.
+	 * @return
+	 */
 	public T sample()
 	{
 		return sample( false );
@@ -169,6 +224,62 @@ public abstract class AbstractNumberMap<T extends Indexed> implements NumberMap<
 		return null;
 	}
 	
+	/**
+	 * Draws a key at random, with probability proportional to its value. Keys with zero or
+	 * negative values are never drawn, and null is returned if there are none with positive values.
+	 * 
+	 * Uses an alias table, which is built on the first draw and kept until the map is changed,
+	 * so repeated draws from an unchanged map are O(1). Changes made directly to a backing
+	 * array aren't noticed.
+	 * @param rService
+	 * @param generatorName
+	 * @return
+	 */
+	public T sample( UranusRandomService rService, String generatorName )
+	{
+		return sample( false, rService, generatorName );
+	}
+	
+	/**
+	 * As sample( UranusRandomService, String ), but if allowNull is set the values are taken as
+	 * absolute probabilities, and any shortfall of their total below 1 is the chance of getting null
+	 * @param allowNull
+	 * @param rService
+	 * @param generatorName
+	 * @return
+	 */
+	public T sample( boolean allowNull, UranusRandomService rService, String generatorName )
+	{
+		if( sampler == null || dirtySampler || samplerAllowsNull != allowNull ) {
+			updateSampler( allowNull );
+		}
+		return sampler.sample( rService, generatorName );
+	}
+	
+	void updateSampler( boolean allowNull )
+	{
+		List<T> keys = new ArrayList<T>( indexes.size() + 1 );
+		double[] weights = new double[indexes.size() + 1];
+		double total = 0;
+		for( T k : indexes )
+		{
+			double w = getDouble( k );
+			weights[keys.size()] = w;
+			keys.add( k );
+			if( w > 0 ) {
+				total += w;
+			}
+		}
+		if( allowNull && total < 1 )
+		{
+			weights[keys.size()] = 1 - total;
+			keys.add( null );
+		}
+		sampler = new AliasTable<T>( keys, weights );
+		samplerAllowsNull = allowNull;
+		dirtySampler = false;
+	}
+	
 	public  boolean same( UnmodifiableNumberMap<T> other ) { return same( other, DEFAULT_THRESHOLD ); }
 	public  boolean same( UnmodifiableNumberMap<T> other, double thresh )
 	{
@@ -0,0 +1,121 @@
+package com.moseph.modelutils.fastdata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.cesr.uranus.core.UranusRandomService;
+
+/**
+ * Walker's alias method (using Vose's construction) for drawing keys in proportion to their
+ * weights. Building the table is O(n), after which every draw is O(1): one uniform number picks
+ * a column and decides between the column's own key and its alias.
+ * 
+ * Keys with zero or negative weight are never drawn.
+ *
+ * @param <T>
+ */
+public class AliasTable<T>
+{
+	List<T> keys;
+	double[] probability;
+	int[] alias;
+	double totalWeight;
+	
+	/**
+	 * @param keys
+	 * @param weights weights for each key, in the same order
+	 */
+	public AliasTable( List<? extends T> keys, double[] weights )
+	{
+		this.keys = new ArrayList<T>( keys.size() );
+		double[] w = new double[keys.size()];
+		int n = 0;
+		for( int i = 0; i < keys.size(); i++ )
+		{
+			if( weights[i] > 0 )
+			{
+				this.keys.add( keys.get( i ) );
+				w[n++] = weights[i];
+				totalWeight += weights[i];
+			}
+		}
+		build( w, n );
+	}
+	
+	/**
+	 * @param weights the positive weights, in the first n places
+	 * @param n
+	 */
+	void build( double[] weights, int n )
+	{
+		probability = new double[n];
+		alias = new int[n];
+		if( n == 0 ) {
+			return;
+		}
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for( int i = 0; i < n; i++ )
+		{
+			scaled[i] = weights[i] * n / totalWeight;
+			if( scaled[i] < 1 ) {
+				small[numSmall++] = i;
+			} else {
+				large[numLarge++] = i;
+			}
+		}
+		while( numSmall > 0 && numLarge > 0 )
+		{
+			int l = small[--numSmall];
+			int g = large[--numLarge];
+			probability[l] = scaled[l];
+			alias[l] = g;
+			scaled[g] = ( scaled[g] + scaled[l] ) - 1;
+			if( scaled[g] < 1 ) {
+				small[numSmall++] = g;
+			} else {
+				large[numLarge++] = g;
+			}
+		}
+		//Anything left over is only off 1 through rounding
+		while( numLarge > 0 ) {
+			probability[large[--numLarge]] = 1;
+		}
+		while( numSmall > 0 ) {
+			probability[small[--numSmall]] = 1;
+		}
+	}
+	
+	/**
+	 * Draws a key in proportion to its weight, or null if there are no positive weights
+	 * @param rService
+	 * @param generatorName
+	 * @return
+	 */
+	public T sample( UranusRandomService rService, String generatorName )
+	{
+		int n = probability.length;
+		if( n == 0 ) {
+			return null;
+		}
+		double x = rService.nextDouble( generatorName ) * n;
+		int i = (int)x;
+		if( i >= n ) {
+			i = n - 1;
+		}
+		return ( x - i ) < probability[i] ? keys.get( i ) : keys.get( alias[i] );
+	}
+	
+	public double getTotalWeight()
+	{
+		return totalWeight;
+	}
+	
+	public int size()
+	{
+		return probability.length;
+	}
+}
@@ -5,7 +5,11 @@ import static java.lang.Math.*;
 
 /**
  * Simple IndexSet. Not modifiable after creation
- * Uses an ArrayList for backing, so quick and cheap. Uses a HashSet to test for containment
+ * Uses an ArrayList for backing, so quick and cheap. Uses a BitSet of indices to test for containment,
+ * so keys are identified by their index
+ * 
+ * If created as compact, maps over the set store one value per key, in iteration order,
+ * rather than one per index.
  * @author dmrust
  *
  * @param <T>
@@ -13,14 +17,45 @@ import static java.lang.Math.*;
 public class ArrayIndexSet<T extends Indexed> implements IndexSet<T>, Iterable<T>
 {
 	List<T> list;
-	Set<T> set;
+	BitSet members = new BitSet();
 	int maxIndex = 0;
+	int[] indices;
+	int[] slots;
+	int[] slotTable;
 	
 	public ArrayIndexSet( Collection<? extends T> values )
+	{
+		this( values, false );
+	}
+	
+	/**
+	 * @param values
+	 * @param compact if true, maps over this set store their values in one slot per key rather
+	 * than at each key's index. Saves space when the indices have big gaps, but backing arrays are
+	 * then no longer indexed by getIndex()
+	 */
+	public ArrayIndexSet( Collection<? extends T> values, boolean compact )
 	{
 		list = Collections.unmodifiableList( new ArrayList<T>( values ) );
-		set = Collections.unmodifiableSet( new HashSet<T>( values ) );
-		for( T t : list ) maxIndex = max( maxIndex, t.getIndex() );
+		for( T t : list )
+		{
+			maxIndex = max( maxIndex, t.getIndex() );
+			members.set( t.getIndex() );
+		}
+		indices = new int[list.size()];
+		for( int i = 0; i < indices.length; i++ ) indices[i] = list.get( i ).getIndex();
+		slots = indices;
+		if( compact )
+		{
+			slots = new int[indices.length];
+			slotTable = new int[maxIndex + 1];
+			Arrays.fill( slotTable, -1 );
+			for( int i = 0; i < indices.length; i++ )
+			{
+				slots[i] = i;
+				slotTable[indices[i]] = i;
+			}
+		}
 	}
 	
 	public ArrayIndexSet( T... values )
@@ -31,9 +66,84 @@ public class ArrayIndexSet<T extends Indexed> implements IndexSet<T>, Iterable<T
 	public List<T> getList() { return list; }
 	public Iterator<T> iterator() { return list.iterator(); }
 	public int getMaxIndex() { return maxIndex; }
-	public boolean containsKey( T t ) { return set.contains( t ); }
+	public boolean containsKey( T t ) { return t != null && containsIndex( t.getIndex() ); }
+	public boolean containsIndex( int index ) { return index >= 0 && members.get( index ); }
+	public BitSet getMembers() { return (BitSet)members.clone(); }
 	public T get( int index ) { return list.get( index ); }
 	public int size() { return list.size(); }
+	public int[] getIndices() { return indices; }
+	public int[] getSlots() { return slots; }
+	public int[] getSlotTable() { return slotTable; }
+	public int getStorageSize() { return slotTable == null ? maxIndex + 1 : slots.length; }
+	public boolean isCompact() { return slotTable != null; }
+	
+	/**
+	 * Keys in this set or other. This set's keys come first, in order, followed by any new
+	 * keys from other
+	 * @param other
+	 * @return
+	 */
+	public ArrayIndexSet<T> union( IndexSet<T> other )
+	{
+		List<T> result = new ArrayList<T>( list );
+		for( T t : other ) {
+			if( ! members.get( t.getIndex() ) ) {
+				result.add( t );
+			}
+		}
+		return create( result );
+	}
+	
+	/**
+	 * Keys of this set which are also in other, in this set's order
+	 * @param other
+	 * @return
+	 */
+	public ArrayIndexSet<T> intersection( IndexSet<T> other )
+	{
+		return select( membersOf( other ), true );
+	}
+	
+	/**
+	 * Keys of this set which are not in other, in this set's order
+	 * @param other
+	 * @return
+	 */
+	public ArrayIndexSet<T> difference( IndexSet<T> other )
+	{
+		return select( membersOf( other ), false );
+	}
+	
+	/**
+	 * The members of set, without copying them if it's an ArrayIndexSet. Must not be changed
+	 * @param set
+	 * @return
+	 */
+	static BitSet membersOf( IndexSet<?> set )
+	{
+		return set instanceof ArrayIndexSet ? ((ArrayIndexSet<?>)set).members : set.getMembers();
+	}
+	
+	ArrayIndexSet<T> select( BitSet mask, boolean keep )
+	{
+		List<T> result = new ArrayList<T>();
+		for( int i = 0; i < indices.length; i++ ) {
+			if( mask.get( indices[i] ) == keep ) {
+				result.add( list.get( i ) );
+			}
+		}
+		return create( result );
+	}
+	
+	/**
+	 * Creates a set of the same type and layout as this one for the results of set operations
+	 * @param values
+	 * @return
+	 */
+	ArrayIndexSet<T> create( List<T> values )
+	{
+		return new ArrayIndexSet<T>( values, isCompact() );
+	}
 	
 	public String toString()
 	{
@@ -0,0 +1,510 @@
+package com.moseph.modelutils.fastdata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary file format for fastdata maps and matrices, shared by the file backed structures
+ * and the binary readers and writers in EasyPersister.
+ * 
+ * Everything is little-endian. A file is a header followed by the raw data:
+ * <pre>
+ * "FDAT", int version, int kind (1 = map, 2 = matrix), int header length (multiple of 8),
+ * int columns, int rows, double initial value,
+ * column keys, row keys (maps have no row keys, and one row)
+ * padding to the header length
+ * data: columns * rows doubles, one block of rows for each column
+ * </pre>
+ * Columns and rows are counted in storage positions, so gaps in the key indices (for
+ * non-compact index sets) are stored too. Keys are stored as an int count (-1 for none) and
+ * a compact flag, then for each key its index and its name (as an int byte count, -1 for keys
+ * which aren't Named, and UTF-8 bytes).
+ * 
+ * DoubleMaps and DoubleMatrixes are read with a straight copy of each column when the file
+ * was written with the same index sets. Otherwise keys are matched up by name, as the CSV
+ * readers do, and keys which aren't in the file keep the stored initial value.
+ */
+public class BinaryFormat
+{
+	static final byte[] MAGIC = { 'F', 'D', 'A', 'T' };
+	public static final int VERSION = 1;
+	public static final int MAP = 1;
+	public static final int MATRIX = 2;
+	/**
+	 * Size of the buffer used to move data between files and arrays
+	 */
+	static final int BLOCK_BYTES = 1 << 16;
+	
+	/**
+	 * The contents of a file header
+	 */
+	public static class Header
+	{
+		public int kind;
+		public int numCols;
+		public int numRows;
+		public double initial;
+		public boolean compactCols;
+		public boolean compactRows;
+		public int[] colIndices;
+		public String[] colNames;
+		//Null for maps
+		public int[] rowIndices;
+		public String[] rowNames;
+		public int length;
+		
+		/**
+		 * @return the position in the file of the first value of the column
+		 */
+		public long columnOffset( int col )
+		{
+			return length + (long)col * numRows * 8;
+		}
+		
+		/**
+		 * @return the total size of the file
+		 */
+		public long fileLength()
+		{
+			return columnOffset( numCols );
+		}
+		
+		/**
+		 * Checks that the file was written for keys matching the given index sets
+		 * @param cols
+		 * @param rows null for maps
+		 * @throws IOException if the keys don't match
+		 */
+		public void check( IndexSet<?> cols, IndexSet<?> rows ) throws IOException
+		{
+			checkKeys( "column", colIndices, colNames, cols );
+			if( rows != null ) {
+				checkKeys( "row", rowIndices, rowNames, rows );
+			}
+			if( compactCols != ( cols.getSlotTable() != null ) || ( rows != null && compactRows != ( rows.getSlotTable() != null ) ) ) {
+				throw new IOException( "Stored index sets differ in whether they are compact" );
+			}
+			if( numCols != cols.getStorageSize() || ( rows != null && numRows != rows.getStorageSize() ) ) {
+				throw new IOException( "Stored layout " + numCols + "x" + numRows + " doesn't match the index sets" );
+			}
+		}
+		
+		/**
+		 * @return true if the file was written for exactly these index sets
+		 */
+		public boolean matches( IndexSet<?> cols, IndexSet<?> rows )
+		{
+			try
+			{
+				check( cols, rows );
+				return true;
+			}
+			catch( IOException e ) {
+				return false;
+			}
+		}
+		
+		/**
+		 * Works out where each of the stored keys goes in the given index set, by name
+		 * @return the storage position in keys for each stored key, or -1 if it isn't there
+		 * @throws IOException if the keys can't be matched by name
+		 */
+		static int[] positions( String what, int[] indices, String[] names, IndexSet<?> keys ) throws IOException
+		{
+			if( ! ( keys instanceof NamedIndexSet ) ) {
+				throw new IOException( "Stored " + what + " keys don't match, and can't be matched by name" );
+			}
+			NamedIndexSet<?> named = (NamedIndexSet<?>)keys;
+			int[] slotTable = keys.getSlotTable();
+			int[] positions = new int[indices.length];
+			for( int i = 0; i < indices.length; i++ )
+			{
+				if( names[i] == null ) {
+					throw new IOException( "Stored " + what + " key " + i + " has no name to match it by" );
+				}
+				Indexed k = named.forName( names[i] );
+				positions[i] = k == null ? -1 : slotTable == null ? k.getIndex() : slotTable[k.getIndex()];
+			}
+			return positions;
+		}
+		
+		/**
+		 * @return where the data for stored key i is in the file's storage layout
+		 */
+		static int stored( int i, int[] indices, boolean compact )
+		{
+			return compact ? i : indices[i];
+		}
+		
+		static void checkKeys( String what, int[] indices, String[] names, IndexSet<?> keys ) throws IOException
+		{
+			if( indices == null || indices.length != keys.size() ) {
+				throw new IOException( "Expected " + keys.size() + " " + what + " keys, file has " + ( indices == null ? 0 : indices.length ) );
+			}
+			for( int i = 0; i < indices.length; i++ )
+			{
+				Indexed k = keys.get( i );
+				if( k.getIndex() != indices[i] ) {
+					throw new IOException( "Mismatched " + what + " key " + i + ": expected index " + k.getIndex() + ", file has " + indices[i] );
+				}
+				if( names[i] != null && k instanceof Named && ! names[i].equals( ((Named)k).getName() ) ) {
+					throw new IOException( "Mismatched " + what + " key " + i + ": expected " + ((Named)k).getName() + ", file has " + names[i] );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the map to the file, replacing anything there
+	 */
+	public static void write( DoubleMap<?> map, File file ) throws IOException
+	{
+		map.merge();
+		write( file, encodeHeader( map.indexes, null, map.initial ), new double[][] { map.data } );
+	}
+	
+	/**
+	 * Writes the matrix to the file, replacing anything there
+	 */
+	public static void write( DoubleMatrix<?, ?> matrix, File file ) throws IOException
+	{
+		write( file, encodeHeader( matrix.colIndexes, matrix.rowIndexes, matrix.initial ), matrix.data );
+	}
+	
+	/**
+	 * Reads a map written by write( DoubleMap, File )
+	 * @param file
+	 * @param keys the keys for the new map
+	 * @throws IOException if the file isn't a map, or its keys can't be matched up
+	 */
+	public static <T extends Indexed> DoubleMap<T> readDoubleMap( File file, IndexSet<T> keys ) throws IOException
+	{
+		FileInputStream in = new FileInputStream( file );
+		try
+		{
+			FileChannel channel = in.getChannel();
+			Header h = readHeader( channel );
+			if( h.kind != MAP ) {
+				throw new IOException( file + " doesn't hold a map" );
+			}
+			DoubleMap<T> map = new DoubleMap<T>( keys, h.initial );
+			if( h.matches( keys, null ) ) {
+				readColumns( channel, h.length, new double[][] { map.data } );
+			}
+			else
+			{
+				double[] stored = new double[h.numCols];
+				readColumns( channel, h.length, new double[][] { stored } );
+				int[] positions = Header.positions( "map", h.colIndices, h.colNames, keys );
+				for( int i = 0; i < positions.length; i++ ) {
+					if( positions[i] >= 0 ) {
+						map.data[positions[i]] = stored[Header.stored( i, h.colIndices, h.compactCols )];
+					}
+				}
+			}
+			map.dirty();
+			return map;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads a matrix written by write( DoubleMatrix, File )
+	 * @param file
+	 * @param cols the column keys for the new matrix
+	 * @param rows the row keys for the new matrix
+	 * @throws IOException if the file isn't a matrix, or its keys can't be matched up
+	 */
+	public static <T extends Indexed, S extends Indexed> DoubleMatrix<T, S> readDoubleMatrix( File file, IndexSet<T> cols, IndexSet<S> rows ) throws IOException
+	{
+		FileInputStream in = new FileInputStream( file );
+		try
+		{
+			FileChannel channel = in.getChannel();
+			Header h = readHeader( channel );
+			if( h.kind != MATRIX ) {
+				throw new IOException( file + " doesn't hold a matrix" );
+			}
+			DoubleMatrix<T, S> matrix = new DoubleMatrix<T, S>( cols, rows, h.initial );
+			if( h.matches( cols, rows ) ) {
+				readColumns( channel, h.length, matrix.data );
+			}
+			else
+			{
+				int[] colPositions = Header.positions( "column", h.colIndices, h.colNames, cols );
+				int[] rowPositions = Header.positions( "row", h.rowIndices, h.rowNames, rows );
+				double[][] stored = new double[1][h.numRows];
+				ByteBuffer block = ByteBuffer.allocateDirect( BLOCK_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+				for( int i = 0; i < colPositions.length; i++ )
+				{
+					if( colPositions[i] < 0 ) {
+						continue;
+					}
+					readColumns( channel, h.columnOffset( Header.stored( i, h.colIndices, h.compactCols ) ), stored, block );
+					double[] column = matrix.data[colPositions[i]];
+					for( int j = 0; j < rowPositions.length; j++ ) {
+						if( rowPositions[j] >= 0 ) {
+							column[rowPositions[j]] = stored[0][Header.stored( j, h.rowIndices, h.compactRows )];
+						}
+					}
+				}
+			}
+			matrix.dirty();
+			return matrix;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	static void write( File file, ByteBuffer header, double[][] columns ) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream( file );
+		try
+		{
+			FileChannel channel = out.getChannel();
+			writeFully( channel, header );
+			ByteBuffer block = ByteBuffer.allocateDirect( BLOCK_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+			DoubleBuffer doubles = block.asDoubleBuffer();
+			for( double[] column : columns ) {
+				for( int from = 0; from < column.length; )
+				{
+					int n = Math.min( column.length - from, doubles.capacity() );
+					doubles.clear();
+					doubles.put( column, from, n );
+					block.clear();
+					block.limit( n * 8 );
+					writeFully( channel, block );
+					from += n;
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Fills the columns, one after the other, from the channel starting at position
+	 */
+	static void readColumns( FileChannel channel, long position, double[][] columns ) throws IOException
+	{
+		readColumns( channel, position, columns, ByteBuffer.allocateDirect( BLOCK_BYTES ).order( ByteOrder.LITTLE_ENDIAN ) );
+	}
+	
+	static void readColumns( FileChannel channel, long position, double[][] columns, ByteBuffer block ) throws IOException
+	{
+		block.clear();
+		DoubleBuffer doubles = block.asDoubleBuffer();
+		for( double[] column : columns ) {
+			for( int from = 0; from < column.length; )
+			{
+				int n = Math.min( column.length - from, doubles.capacity() );
+				block.clear();
+				block.limit( n * 8 );
+				while( block.hasRemaining() ) {
+					if( channel.read( block, position + block.position() ) < 0 ) {
+						throw new IOException( "Unexpected end of fastdata binary file" );
+					}
+				}
+				position += n * 8;
+				doubles.clear();
+				doubles.get( column, from, n );
+				from += n;
+			}
+		}
+	}
+	
+	static void writeFully( FileChannel channel, ByteBuffer b ) throws IOException
+	{
+		while( b.hasRemaining() ) {
+			channel.write( b );
+		}
+	}
+	
+	/**
+	 * Encodes a header for the given keys. rows should be null for maps
+	 * @return a buffer positioned at 0, ready to be written
+	 */
+	public static ByteBuffer encodeHeader( IndexSet<?> cols, IndexSet<?> rows, double initial )
+	{
+		int length = 32 + keysLength( cols ) + keysLength( rows );
+		length = ( length + 7 ) & ~7;
+		ByteBuffer b = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+		b.put( MAGIC );
+		b.putInt( VERSION );
+		b.putInt( rows == null ? MAP : MATRIX );
+		b.putInt( length );
+		b.putInt( cols.getStorageSize() );
+		b.putInt( rows == null ? 1 : rows.getStorageSize() );
+		b.putDouble( initial );
+		putKeys( b, cols );
+		putKeys( b, rows );
+		b.clear();
+		return b;
+	}
+	
+	/**
+	 * Reads and checks the header from the start of the channel
+	 * @param channel
+	 * @return
+	 * @throws IOException if it isn't a valid file
+	 */
+	public static Header readHeader( FileChannel channel ) throws IOException
+	{
+		ByteBuffer start = read( channel, 0, 16 );
+		byte[] magic = new byte[4];
+		start.get( magic );
+		for( int i = 0; i < 4; i++ ) {
+			if( magic[i] != MAGIC[i] ) {
+				throw new IOException( "Not a fastdata binary file" );
+			}
+		}
+		int version = start.getInt();
+		if( version != VERSION ) {
+			throw new IOException( "Unsupported fastdata binary version: " + version );
+		}
+		Header h = new Header();
+		h.kind = start.getInt();
+		h.length = start.getInt();
+		if( h.kind != MAP && h.kind != MATRIX ) {
+			throw corrupt( "unknown kind " + h.kind );
+		}
+		if( h.length < 48 || h.length > channel.size() ) {
+			throw corrupt( "header length " + h.length + " in a file of " + channel.size() + " bytes" );
+		}
+		ByteBuffer b = read( channel, 16, h.length - 16 );
+		h.numCols = b.getInt();
+		h.numRows = b.getInt();
+		h.initial = b.getDouble();
+		if( h.numCols < 0 || h.numRows < 0 ) {
+			throw corrupt( "layout " + h.numCols + "x" + h.numRows );
+		}
+		int count = b.getInt();
+		h.compactCols = b.getInt() != 0;
+		checkCount( b, count, h.numCols );
+		h.colIndices = new int[count];
+		h.colNames = new String[count];
+		getKeys( b, h.colIndices, h.colNames, h.compactCols, h.numCols );
+		if( b.remaining() < 8 ) {
+			throw corrupt( "header ends in the column keys" );
+		}
+		count = b.getInt();
+		h.compactRows = b.getInt() != 0;
+		if( h.kind == MATRIX )
+		{
+			checkCount( b, count, h.numRows );
+			h.rowIndices = new int[count];
+			h.rowNames = new String[count];
+			getKeys( b, h.rowIndices, h.rowNames, h.compactRows, h.numRows );
+		}
+		else if( count != -1 || h.numRows != 1 ) {
+			throw corrupt( "map with row keys" );
+		}
+		if( channel.size() < h.fileLength() ) {
+			throw new IOException( "Truncated fastdata binary file: expected " + h.fileLength() + " bytes, got " + channel.size() );
+		}
+		return h;
+	}
+	
+	static IOException corrupt( String problem )
+	{
+		return new IOException( "Corrupt fastdata binary file: " + problem );
+	}
+	
+	/**
+	 * Checks a key count against the storage size and the bytes left for the keys (at least 8 each)
+	 */
+	static void checkCount( ByteBuffer b, int count, int storageSize ) throws IOException
+	{
+		if( count < 0 || count > storageSize || count > b.remaining() / 8 ) {
+			throw corrupt( "key count " + count );
+		}
+	}
+	
+	static ByteBuffer read( FileChannel channel, long position, int length ) throws IOException
+	{
+		ByteBuffer b = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+		while( b.hasRemaining() ) {
+			if( channel.read( b, position + b.position() ) < 0 ) {
+				throw new IOException( "Unexpected end of fastdata binary file" );
+			}
+		}
+		b.flip();
+		return b;
+	}
+	
+	static int keysLength( IndexSet<?> keys )
+	{
+		int length = 8;
+		if( keys != null ) {
+			for( Indexed k : keys ) {
+				length += 8 + nameBytes( k ).length;
+			}
+		}
+		return length;
+	}
+	
+	static byte[] nameBytes( Indexed k )
+	{
+		return k instanceof Named ? ((Named)k).getName().getBytes( StandardCharsets.UTF_8 ) : new byte[0];
+	}
+	
+	static void putKeys( ByteBuffer b, IndexSet<?> keys )
+	{
+		if( keys == null )
+		{
+			b.putInt( -1 );
+			b.putInt( 0 );
+			return;
+		}
+		b.putInt( keys.size() );
+		b.putInt( keys.getSlotTable() == null ? 0 : 1 );
+		for( Indexed k : keys )
+		{
+			b.putInt( k.getIndex() );
+			if( k instanceof Named )
+			{
+				byte[] name = nameBytes( k );
+				b.putInt( name.length );
+				b.put( name );
+			}
+			else {
+				b.putInt( -1 );
+			}
+		}
+	}
+	
+	static void getKeys( ByteBuffer b, int[] indices, String[] names, boolean compact, int storageSize ) throws IOException
+	{
+		for( int i = 0; i < indices.length; i++ )
+		{
+			if( b.remaining() < 8 ) {
+				throw corrupt( "header ends in key " + i );
+			}
+			indices[i] = b.getInt();
+			int length = b.getInt();
+			if( indices[i] < 0 || ( ! compact && indices[i] >= storageSize ) ) {
+				throw corrupt( "key index " + indices[i] );
+			}
+			if( length < -1 || length > b.remaining() ) {
+				throw corrupt( "key name length " + length );
+			}
+			if( length >= 0 )
+			{
+				byte[] name = new byte[length];
+				b.get( name );
+				names[i] = new String( name, StandardCharsets.UTF_8 );
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.moseph.modelutils.fastdata;
+
+/**
+ * Live view of one column of a matrix, as a map from row keys to values. Get one from
+ * AbstractDoubleMatrix.getColumnView(), and move it between columns with setColumn() to
+ * avoid creating a new view for each.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class ColumnView<T extends Indexed, S extends Indexed> extends MatrixView<S>
+{
+	AbstractDoubleMatrix<T, S> matrix;
+	T column;
+	int col;
+	
+	ColumnView( AbstractDoubleMatrix<T, S> matrix, T column, boolean writable )
+	{
+		super( matrix.rowIndexes, writable );
+		this.matrix = matrix;
+		setColumn( column );
+	}
+	
+	public void setColumn( T column )
+	{
+		this.column = column;
+		col = matrix.colPos( column );
+	}
+	
+	public T getColumn()
+	{
+		return column;
+	}
+	
+	@Override
+	double get( int pos ) { return matrix.get( col, pos ); }
+	@Override
+	void put( int pos, double value ) { matrix.put( col, pos, value ); }
+	@Override
+	void add( int pos, double amount ) { matrix.add( col, pos, amount ); }
+	@Override
+	double initial() { return matrix.initial; }
+}
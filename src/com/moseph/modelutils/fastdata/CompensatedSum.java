@@ -0,0 +1,62 @@
+package com.moseph.modelutils.fastdata;
+
+import static java.lang.Math.abs;
+
+/**
+ * A running sum using Neumaier's variant of Kahan summation. The lost low order bits of
+ * each addition are kept in a separate compensation term, so long sequences of small
+ * updates to a large total don't drift.
+ */
+public class CompensatedSum
+{
+	double sum;
+	double compensation;
+
+	public CompensatedSum() {}
+
+	public CompensatedSum( double initial )
+	{
+		reset( initial );
+	}
+
+	public void reset( double value )
+	{
+		sum = value;
+		compensation = 0;
+	}
+
+	public void add( double x )
+	{
+		double t = sum + x;
+		//Nothing to compensate once the sum has overflowed or gone NaN
+		if( Double.isFinite( t ) )
+		{
+			if( abs( sum ) >= abs( x ) ) {
+				compensation += ( sum - t ) + x;
+			} else {
+				compensation += ( x - t ) + sum;
+			}
+		}
+		sum = t;
+	}
+
+	public double get()
+	{
+		return sum + compensation;
+	}
+
+	/**
+	 * Compensated sum of the first length values
+	 * @param values
+	 * @param length
+	 * @return
+	 */
+	public static double sum( double[] values, int length )
+	{
+		CompensatedSum s = new CompensatedSum();
+		for( int i = 0; i < length; i++ ) {
+			s.add( values[i] );
+		}
+		return s.get();
+	}
+}
@@ -0,0 +1,265 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.cesr.uranus.core.UranusRandomService;
+
+
+/**
+ * A DoubleMap which many threads can add to at once without locking, e.g. from a parallel
+ * stream over agents.
+ * 
+ * Each thread's add() calls go into its own private buffer. The buffers are merged into the
+ * map by flush(), or automatically by anything which reads (or overwrites) values. Merging
+ * only visits the chunks of each buffer which were actually written.
+ * 
+ * Only add() (and increment()/addDouble()) may be called concurrently. Reads, put() and
+ * flush() must happen once the parallel phase is over, e.g. after the stream has completed.
+ * Each thread which adds keeps a buffer as large as the map until release() is called.
+ *
+ * @param <T>
+ */
+public class ConcurrentDoubleMap<T extends Indexed> extends DoubleMap<T>
+{
+	//Matches the snapshot chunks, so a flushed chunk is saved in one go
+	static final int CHUNK_BITS = SNAPSHOT_CHUNK_BITS;
+	
+	/**
+	 * One thread's pending additions
+	 */
+	static class Buffer
+	{
+		double[] values;
+		boolean[] touchedChunks;
+		boolean active = false;
+		
+		Buffer( int size )
+		{
+			values = new double[size];
+			touchedChunks = new boolean[( size >> CHUNK_BITS ) + 1];
+		}
+	}
+	
+	List<Buffer> buffers;
+	ThreadLocal<Buffer> localBuffer;
+	AtomicInteger activeBuffers;
+
+	public ConcurrentDoubleMap( Collection<? extends T> ind )
+	{
+		this( ind, 0d );
+	}
+	
+	public ConcurrentDoubleMap( Collection<? extends T> indexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( indexes ), initial );
+	}
+	
+	public ConcurrentDoubleMap( IndexSet<T> indexes )
+	{
+		this( indexes, 0 );
+	}
+	
+	public ConcurrentDoubleMap( IndexSet<T> indexes, double initial )
+	{
+		super( indexes, initial );
+		buffers = new ArrayList<Buffer>();
+		activeBuffers = new AtomicInteger();
+		localBuffer = newLocalBuffer();
+	}
+	
+	ThreadLocal<Buffer> newLocalBuffer()
+	{
+		return new ThreadLocal<Buffer>() {
+			@Override
+			protected Buffer initialValue()
+			{
+				Buffer b = new Buffer( data.length );
+				synchronized( buffers ) {
+					buffers.add( b );
+				}
+				return b;
+			}
+		};
+	}
+	
+	/**
+	 * Adds to this thread's buffer. Safe to call from many threads at once
+	 */
+	@Override
+	public void add( T key, double amount )
+	{
+		Buffer b = localBuffer.get();
+		int i = pos( key );
+		b.values[i] += amount;
+		b.touchedChunks[i >> CHUNK_BITS] = true;
+		if( ! b.active )
+		{
+			b.active = true;
+			activeBuffers.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Merges all the threads' pending additions into the map
+	 */
+	public void flush()
+	{
+		if( activeBuffers.get() == 0 ) {
+			return;
+		}
+		synchronized( buffers )
+		{
+			for( Buffer b : buffers )
+			{
+				if( ! b.active ) {
+					continue;
+				}
+				for( int c = 0; c < b.touchedChunks.length; c++ )
+				{
+					if( ! b.touchedChunks[c] ) {
+						continue;
+					}
+					int start = c << CHUNK_BITS;
+					int end = Math.min( data.length, start + ( 1 << CHUNK_BITS ) );
+					writing( start );
+					for( int i = start; i < end; i++ ) {
+						data[i] += b.values[i];
+					}
+					Arrays.fill( b.values, start, end, 0 );
+					b.touchedChunks[c] = false;
+				}
+				b.active = false;
+			}
+			activeBuffers.set( 0 );
+		}
+		dirty();
+	}
+	
+	/**
+	 * Flushes, then frees the arrays of all the per-thread buffers. Threads which add
+	 * afterwards will get new buffers.
+	 */
+	public void release()
+	{
+		flush();
+		synchronized( buffers )
+		{
+			//The threads' ThreadLocalMaps still refer to the old buffers, so empty them
+			for( Buffer b : buffers )
+			{
+				b.values = null;
+				b.touchedChunks = null;
+			}
+			buffers.clear();
+		}
+		localBuffer = newLocalBuffer();
+	}
+	
+	@Override
+	void merge()
+	{
+		flush();
+	}
+	
+	/**
+	 * Flushes first, so pending additions are seen by the sampler
+	 */
+	@Override
+	public T sample( boolean allowNull, UranusRandomService rService, String generatorName )
+	{
+		flush();
+		return super.sample( allowNull, rService, generatorName );
+	}
+	
+	@Override
+	public double get( T key )
+	{
+		flush();
+		return data[pos( key )];
+	}
+	
+	@Override
+	public double[] getAll()
+	{
+		flush();
+		return data;
+	}
+	
+	@Override
+	public void put( T key, double value )
+	{
+		flush();
+		super.put( key, value );
+	}
+	
+	@Override
+	public void put( double[] values )
+	{
+		flush();
+		super.put( values );
+	}
+	
+	@Override
+	public double getTotal()
+	{
+		flush();
+		return super.getTotal();
+	}
+	
+	@Override
+	public void clear()
+	{
+		if( buffers != null ) {
+			flush();
+		}
+		super.clear();
+	}
+	
+	@Override
+	public DoubleMap<T> copy()
+	{
+		flush();
+		return super.copy();
+	}
+	
+	@Override
+	public void setMin( double value )
+	{
+		flush();
+		super.setMin( value );
+	}
+	
+	/**
+	 * Creates a ConcurrentDoubleMap with the same structure, but no data in
+	 * @return
+	 */
+	@Override
+	public ConcurrentDoubleMap<T> duplicate() { return new ConcurrentDoubleMap<T>( indexes, initial ); }
+}
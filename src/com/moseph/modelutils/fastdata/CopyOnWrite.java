@@ -0,0 +1,153 @@
+package com.moseph.modelutils.fastdata;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Copy-on-write support for taking O(1) snapshots of array backed structures.
+ * 
+ * The structure's storage is divided into chunks. Taking a snapshot copies nothing; instead,
+ * the first write to each chunk afterwards saves the chunk's old contents into every live
+ * snapshot which doesn't have it yet. A snapshot reads saved chunks from its own copies and
+ * the rest from the live structure, which haven't changed since it was taken. Once a chunk
+ * has been saved, further writes to it cost a single comparison until the next snapshot.
+ * 
+ * Snapshots can be read from any thread while the owner carries on writing. Reads of live
+ * chunks are validated against a StampedLock, which is only locked while a chunk is being
+ * saved, so a read that races with the first write to a chunk retries against the saved copy.
+ * snapshot() and all writes must come from the thread which owns the structure.
+ */
+class CopyOnWrite
+{
+	/**
+	 * Access to the owner's storage
+	 */
+	interface Chunks
+	{
+		double[] copyChunk( int chunk );
+		double read( int chunk, int offset );
+	}
+	
+	final Chunks source;
+	final int numChunks;
+	//The generation in which each chunk was last saved
+	final int[] savedAt;
+	int generation = 0;
+	final List<WeakReference<Snapshot>> snapshots = new ArrayList<WeakReference<Snapshot>>();
+	final StampedLock lock = new StampedLock();
+	
+	CopyOnWrite( Chunks source, int numChunks )
+	{
+		this.source = source;
+		this.numChunks = numChunks;
+		savedAt = new int[numChunks];
+	}
+	
+	Snapshot snapshot()
+	{
+		generation++;
+		Snapshot s = new Snapshot( this );
+		snapshots.add( new WeakReference<Snapshot>( s ) );
+		return s;
+	}
+	
+	/**
+	 * Must be called before changing anything in the chunk
+	 */
+	final void beforeWrite( int chunk )
+	{
+		if( savedAt[chunk] != generation ) {
+			save( chunk );
+		}
+	}
+	
+	/**
+	 * Must be called before changes which could touch any chunk
+	 */
+	final void beforeWriteAll()
+	{
+		for( int c = 0; c < numChunks; c++ ) {
+			beforeWrite( c );
+		}
+	}
+	
+	void save( int chunk )
+	{
+		long stamp = lock.writeLock();
+		try
+		{
+			double[] copy = null;
+			for( Iterator<WeakReference<Snapshot>> it = snapshots.iterator(); it.hasNext(); )
+			{
+				Snapshot s = it.next().get();
+				if( s == null || s.released )
+				{
+					it.remove();
+					continue;
+				}
+				if( s.saved.get( chunk ) == null )
+				{
+					if( copy == null ) {
+						copy = source.copyChunk( chunk );
+					}
+					s.saved.set( chunk, copy );
+				}
+			}
+			savedAt[chunk] = generation;
+		}
+		finally {
+			lock.unlockWrite( stamp );
+		}
+	}
+	
+	/**
+	 * The state of the owner at the time it was taken
+	 */
+	static class Snapshot
+	{
+		final CopyOnWrite owner;
+		final AtomicReferenceArray<double[]> saved;
+		volatile boolean released = false;
+		
+		Snapshot( CopyOnWrite owner )
+		{
+			this.owner = owner;
+			saved = new AtomicReferenceArray<double[]>( owner.numChunks );
+		}
+		
+		double get( int chunk, int offset )
+		{
+			StampedLock lock = owner.lock;
+			long stamp = lock.tryOptimisticRead();
+			double[] s = saved.get( chunk );
+			if( s != null ) {
+				return s[offset];
+			}
+			double value = owner.source.read( chunk, offset );
+			if( lock.validate( stamp ) ) {
+				return value;
+			}
+			stamp = lock.readLock();
+			try
+			{
+				s = saved.get( chunk );
+				return s != null ? s[offset] : owner.source.read( chunk, offset );
+			}
+			finally {
+				lock.unlockRead( stamp );
+			}
+		}
+		
+		/**
+		 * Stops the owner saving chunks for this snapshot. It mustn't be read afterwards.
+		 */
+		void release()
+		{
+			released = true;
+		}
+	}
+}
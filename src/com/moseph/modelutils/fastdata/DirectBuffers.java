@@ -0,0 +1,106 @@
+package com.moseph.modelutils.fastdata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Helpers for allocating and releasing direct (off-heap) buffers used by the off-heap
+ * and file backed structures.
+ * 
+ * Direct buffers are normally only freed when the garbage collector gets round to their
+ * owning objects, which can be a long time for objects in the old generation. free() releases
+ * the memory (or unmaps the file) straight away, using whichever cleaner mechanism the running
+ * JVM provides. The buffer must not be touched afterwards.
+ */
+class DirectBuffers
+{
+	static Logger log = Logger.getLogger( DirectBuffers.class );
+	static final int MAX_DOUBLES = Integer.MAX_VALUE / 8;
+	
+	static Object unsafe;
+	static Method invokeCleaner;
+	
+	static
+	{
+		try
+		{
+			Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+			Field f = unsafeClass.getDeclaredField( "theUnsafe" );
+			f.setAccessible( true );
+			unsafe = f.get( null );
+			invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+		}
+		catch( Exception e )
+		{
+			//Pre Java 9 - fall back to the buffer's own cleaner
+			invokeCleaner = null;
+		}
+	}
+	
+	/**
+	 * Allocates a zeroed direct buffer for the given number of doubles, in native byte order
+	 * @param count
+	 * @return
+	 */
+	static ByteBuffer allocate( int count )
+	{
+		if( count < 0 || count > MAX_DOUBLES ) {
+			throw new IllegalArgumentException( "Can't allocate " + count + " doubles in one direct buffer (max " + MAX_DOUBLES + ")" );
+		}
+		return ByteBuffer.allocateDirect( count * 8 ).order( ByteOrder.nativeOrder() );
+	}
+	
+	/**
+	 * Sets every element of the buffer to value
+	 * @param buffer
+	 * @param value
+	 */
+	static void fill( DoubleBuffer buffer, double value )
+	{
+		int length = buffer.capacity();
+		double[] chunk = new double[Math.min( length, 4096 )];
+		Arrays.fill( chunk, value );
+		DoubleBuffer b = buffer.duplicate();
+		b.clear();
+		while( b.remaining() > 0 ) {
+			b.put( chunk, 0, Math.min( chunk.length, b.remaining() ) );
+		}
+	}
+	
+	/**
+	 * Releases the memory behind a direct or mapped buffer. Any views onto the buffer become
+	 * invalid, so all references to them must be dropped first.
+	 * @param buffer
+	 */
+	static void free( ByteBuffer buffer )
+	{
+		if( buffer == null || ! buffer.isDirect() ) {
+			return;
+		}
+		try
+		{
+			if( invokeCleaner != null ) {
+				invokeCleaner.invoke( unsafe, buffer );
+			}
+			else
+			{
+				Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+				cleanerMethod.setAccessible( true );
+				Object cleaner = cleanerMethod.invoke( buffer );
+				if( cleaner != null ) {
+					cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+				}
+			}
+		}
+		catch( Exception e )
+		{
+			log.debug( "Couldn't free direct buffer explicitly, leaving it to the garbage collector: " + e );
+		}
+	}
+}
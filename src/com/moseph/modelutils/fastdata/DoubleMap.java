@@ -43,6 +43,25 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 	public double[] data;
 	double initial = 0;
 	double total;
+	/**
+	 * True if every slot in data belongs to a key, so bulk operations can run over the whole array
+	 */
+	boolean dense;
+	/**
+	 * Running total used when incrementalTotal is set
+	 */
+	CompensatedSum runningTotal = new CompensatedSum();
+	int updatesSinceResum = 0;
+	/**
+	 * Number of incremental updates after which the total is re-summed from scratch.
+	 * Defaults to the size of the map, so re-summing stays O(1) per update
+	 */
+	int resumInterval;
+	/**
+	 * Chunks of 2^SNAPSHOT_CHUNK_BITS values are copied on write after snapshot()
+	 */
+	static final int SNAPSHOT_CHUNK_BITS = 10;
+	CopyOnWrite cow;
 
 	public DoubleMap( Collection<? extends T> ind )
 	{
@@ -62,7 +81,9 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 	{
 		super( indexes );
 		this.initial = initial;
-		data = new double[indexes.getMaxIndex()+1];
+		data = new double[indexes.getStorageSize()];
+		dense = indexes.size() == data.length;
+		resumInterval = Math.max( 1, data.length );
 		clear();
 	}
 	
@@ -72,14 +93,14 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 		if( values.length != data.length ) {
 			throw new RuntimeException("Wrong size array given to DoubleMap. Expecting "+ data.length+" got " + values.length);
 		}
-		for( T t : indexes ) {
-			data[t.getIndex()] = values[t.getIndex()];
+		for( int i : slots ) {
+			data[i] = values[i];
 		}
 	}
 	
 	public double get( T key )
 	{
-		return data[key.getIndex()];
+		return data[pos( key )];
 	}
 	
 	public double[] getAll()
@@ -89,10 +110,17 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 	
 	public void put( T key, double value )
 	{
-		data[key.getIndex()] = value;
-		dirtyTotal = true;
+		int i = pos( key );
+		writing( i );
+		if( incrementalTotal ) {
+			updateTotal( value - data[i] );
+		} else {
+			dirtyTotal = true;
+		}
+		data[i] = value;
 		dirtyAverage = true;
 		dirtyMaxMin = true;
+		dirtySampler = true;
 //		dirty();
 	}
 	
@@ -101,12 +129,14 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 		if( values.length != data.length ) {
 			throw new RuntimeException("Wrong length array passed to DoubleMap. Got " + values.length + " expected " + data.length);
 		}
+		writingAll();
 		System.arraycopy( values, 0, data, 0, data.length );
 		
 		// dirty(); // I guess..? (ABS in Apr 2021)
 		dirtyTotal = true;
 		dirtyAverage = true;
 		dirtyMaxMin = true;
+		dirtySampler = true;
 	}
 	
 	public void increment( T key )
@@ -116,13 +146,51 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 	
 	public void add( T key, double amount )
 	{
-		data[key.getIndex()] += amount;
-		dirty();
+		int i = pos( key );
+		writing( i );
+		data[i] += amount;
+		if( incrementalTotal ) {
+			updateTotal( amount );
+			dirtyAverage = true;
+			dirtyMaxMin = true;
+			dirtySampler = true;
+		} else {
+			dirty();
+		}
+	}
+	
+	/**
+	 * Applies a change to the running total. Non-finite changes, and every resumInterval
+	 * changes, fall back to dirtying the total so it gets re-summed exactly.
+	 * @param delta
+	 */
+	void updateTotal( double delta )
+	{
+		if( dirtyTotal ) {
+			return;
+		}
+		if( Double.isInfinite( delta ) || Double.isNaN( delta ) || ++updatesSinceResum >= resumInterval ) {
+			dirtyTotal = true;
+			return;
+		}
+		runningTotal.add( delta );
+		total = runningTotal.get();
+	}
+	
+	/**
+	 * Sets how many incremental updates can be applied before the total is re-summed
+	 * from the data
+	 * @param interval
+	 */
+	public void setResumInterval( int interval )
+	{
+		resumInterval = Math.max( 1, interval );
 	}
 	
 	@Override
 	public void clear()
 	{
+		writingAll();
 		Arrays.fill( data, initial );
 		total = initial * size();
 		dirty();
@@ -139,9 +207,21 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 	@Override
 	void updateTotals()
 	{
-		total = 0;
-		for( double v : data ) {
-			total += v;
+		if( incrementalTotal )
+		{
+			runningTotal.reset( 0 );
+			for( double v : data ) {
+				runningTotal.add( v );
+			}
+			total = runningTotal.get();
+			updatesSinceResum = 0;
+		}
+		else
+		{
+			total = 0;
+			for( double v : data ) {
+				total += v;
+			}
 		}
 		dirtyTotal = false;
 	}
@@ -152,6 +232,32 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 		average = getTotal() / size();
 	}
 	
+	@Override
+	void updateMaxMin()
+	{
+		merge();
+		double vMax = -Double.MAX_VALUE;
+		double vMin = Double.MAX_VALUE;
+		int iMax = -1;
+		int iMin = -1;
+		for( int i = 0; i < slots.length; i++ )
+		{
+			double val = data[slots[i]];
+			if( val > vMax )
+			{
+				vMax = val;
+				iMax = i;
+			}
+			if( val < vMin )
+			{
+				vMin = val;
+				iMin = i;
+			}
+		}
+		max = iMax < 0 ? null : indexes.get( iMax );
+		min = iMin < 0 ? null : indexes.get( iMin );
+	}
+	
 	
 	/**
 	 * TODO check if LinkedHashMap required
@@ -193,11 +299,182 @@ public class DoubleMap<T extends Indexed> extends AbstractNumberMap<T>
 		return ret;
 	}
 	
+	/**
+	 * Returns other as a DoubleMap if it shares this map's IndexSet, so the backing arrays
+	 * line up and bulk operations can work on them directly. Null otherwise.
+	 * @param other
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	DoubleMap<T> aligned( Object other )
+	{
+		if( other instanceof DoubleMap && ((DoubleMap<T>)other).indexes == indexes )
+		{
+			DoubleMap<T> o = (DoubleMap<T>)other;
+			merge();
+			o.merge();
+			return o;
+		}
+		return null;
+	}
+	
+	/**
+	 * Takes an immutable snapshot of the map's current values in O(1) time. Nothing is copied
+	 * up front; afterwards, the first write to each chunk of the map copies that chunk for the
+	 * snapshot. Snapshots can be read from other threads while this map carries on changing,
+	 * but must be taken by the thread that writes to the map.
+	 * 
+	 * Writes straight into the public data array bypass this, and will show up in snapshots.
+	 * Call release() on snapshots when done with them to stop chunks being copied for them.
+	 * @return
+	 */
+	public DoubleMapSnapshot<T> snapshot()
+	{
+		merge();
+		if( cow == null )
+		{
+			cow = new CopyOnWrite( new CopyOnWrite.Chunks() {
+				public double[] copyChunk( int chunk )
+				{
+					int start = chunk << SNAPSHOT_CHUNK_BITS;
+					return Arrays.copyOfRange( data, start, Math.min( data.length, start + ( 1 << SNAPSHOT_CHUNK_BITS ) ) );
+				}
+				public double read( int chunk, int offset )
+				{
+					return data[( chunk << SNAPSHOT_CHUNK_BITS ) + offset];
+				}
+			}, ( data.length >> SNAPSHOT_CHUNK_BITS ) + 1 );
+		}
+		return new DoubleMapSnapshot<T>( indexes, initial, cow.snapshot() );
+	}
+	
+	/**
+	 * Must be called before changing data[i], to keep snapshots intact
+	 */
+	final void writing( int i )
+	{
+		if( cow != null ) {
+			cow.beforeWrite( i >> SNAPSHOT_CHUNK_BITS );
+		}
+	}
+	
+	/**
+	 * Must be called before bulk changes to data
+	 */
+	final void writingAll()
+	{
+		if( cow != null ) {
+			cow.beforeWriteAll();
+		}
+	}
+	
+	/**
+	 * Brings data up to date before it is accessed directly. Nothing to do here, but subclasses
+	 * which buffer writes elsewhere override it.
+	 */
+	void merge() {}
+	
+	@Override
+	public void copyInto( NumberMap<T> target )
+	{
+		DoubleMap<T> t = aligned( target );
+		if( t == null ) {
+			super.copyInto( target );
+			return;
+		}
+		t.writingAll();
+		if( dense ) {
+			FastdataUtilities.copy( data, t.data, data.length );
+		} else {
+			for( int i : slots ) {
+				t.data[i] = data[i];
+			}
+		}
+		t.dirty();
+	}
+	
+	@Override
+	public void addInto( NumberMap<T> target )
+	{
+		DoubleMap<T> t = aligned( target );
+		if( t == null ) {
+			super.addInto( target );
+			return;
+		}
+		t.writingAll();
+		if( dense ) {
+			FastdataUtilities.add( data, t.data, data.length );
+		} else {
+			for( int i : slots ) {
+				t.data[i] += data[i];
+			}
+		}
+		t.dirty();
+	}
+	
+	@Override
+	public void multiplyInto( double v, NumberMap<T> target )
+	{
+		DoubleMap<T> t = aligned( target );
+		if( t == null ) {
+			super.multiplyInto( v, target );
+			return;
+		}
+		t.writingAll();
+		if( dense ) {
+			FastdataUtilities.multiply( v, data, t.data, data.length );
+		} else {
+			for( int i : slots ) {
+				t.data[i] = v * data[i];
+			}
+		}
+		t.dirty();
+	}
+	
+	@Override
+	public void subtractInto( UnmodifiableNumberMap<T> subtractor, NumberMap<T> target )
+	{
+		DoubleMap<T> s = aligned( subtractor );
+		DoubleMap<T> t = aligned( target );
+		if( s == null || t == null ) {
+			super.subtractInto( subtractor, target );
+			return;
+		}
+		t.writingAll();
+		if( dense ) {
+			FastdataUtilities.subtract( data, s.data, t.data, data.length );
+		} else {
+			for( int i : slots ) {
+				t.data[i] = data[i] - s.data[i];
+			}
+		}
+		t.dirty();
+	}
+	
+	@Override
+	public double dotProduct( UnmodifiableNumberMap<T> other )
+	{
+		DoubleMap<T> o = aligned( other );
+		if( o == null ) {
+			return super.dotProduct( other );
+		}
+		if( dense ) {
+			return FastdataUtilities.dot( data, o.data, data.length );
+		}
+		double value = 0;
+		for( int i : slots ) {
+			value += data[i] * o.data[i];
+		}
+		return value;
+	}
+	
 	public void setMin( double value )
 	{
+		writingAll();
 		for( int i = 0; i < data.length; i++ ) {
 			data[i] = Math.max( value, data[i] );
 		}
+		dirty();
 	}
 	
 	public String toString() {
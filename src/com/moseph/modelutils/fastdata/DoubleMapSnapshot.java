@@ -0,0 +1,174 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.cesr.uranus.core.UranusRandomService;
+
+/**
+ * An immutable view of a DoubleMap's values at the time DoubleMap.snapshot() was called.
+ * Safe to read from other threads while the original changes, and from several threads at
+ * once. Totals and other aggregates are computed on first use and cached; the methods which
+ * do so are synchronized.
+ *
+ * @param <T>
+ */
+public class DoubleMapSnapshot<T extends Indexed> extends AbstractNumberMap<T>
+{
+	static final int MASK = ( 1 << DoubleMap.SNAPSHOT_CHUNK_BITS ) - 1;
+	CopyOnWrite.Snapshot snapshot;
+	double initial;
+	double total;
+	
+	DoubleMapSnapshot( IndexSet<T> indexes, double initial, CopyOnWrite.Snapshot snapshot )
+	{
+		super( indexes );
+		this.initial = initial;
+		this.snapshot = snapshot;
+		dirty();
+	}
+	
+	public double get( T key )
+	{
+		int i = pos( key );
+		return snapshot.get( i >> DoubleMap.SNAPSHOT_CHUNK_BITS, i & MASK );
+	}
+	
+	@Override
+	public double getDouble( T key ) { return get( key ); }
+	
+	@Override
+	public void putDouble( T key, double value )
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	@Override
+	public void addDouble( T key, double value )
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	public synchronized double getTotal()
+	{
+		if( dirtyTotal ) {
+			updateTotals();
+		}
+		return total;
+	}
+	
+	@Override
+	public double getDoubleTotal() { return getTotal(); }
+	
+	/**
+	 * Sums every slot, including any gaps, as DoubleMap does
+	 */
+	@Override
+	void updateTotals()
+	{
+		total = 0;
+		for( int i = 0; i < size(); i++ ) {
+			total += snapshot.get( i >> DoubleMap.SNAPSHOT_CHUNK_BITS, i & MASK );
+		}
+		dirtyTotal = false;
+	}
+	
+	@Override
+	public synchronized double getAverage()
+	{
+		return super.getAverage();
+	}
+	
+	@Override
+	public synchronized T getMax()
+	{
+		return super.getMax();
+	}
+	
+	@Override
+	public synchronized T getMin()
+	{
+		return super.getMin();
+	}
+	
+	@Override
+	public synchronized T sample( boolean allowNull, UranusRandomService rService, String generatorName )
+	{
+		return super.sample( allowNull, rService, generatorName );
+	}
+	
+	@Override
+	void updateAverage()
+	{
+		average = getTotal() / size();
+		dirtyAverage = false;
+	}
+	
+	@Override
+	void updateMaxMin()
+	{
+		super.updateMaxMin();
+		dirtyMaxMin = false;
+	}
+	
+	@Override
+	public Map<T, Double> toMap()
+	{
+		Map<T, Double> map = new LinkedHashMap<T, Double>();
+		for( T k : indexes ) {
+			map.put( k, get( k ) );
+		}
+		return map;
+	}
+	
+	/**
+	 * Copies the snapshot into a new, modifiable, DoubleMap
+	 * @return
+	 */
+	public DoubleMap<T> toDoubleMap()
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( indexes, initial );
+		for( int i = 0; i < ret.data.length; i++ ) {
+			ret.data[i] = snapshot.get( i >> DoubleMap.SNAPSHOT_CHUNK_BITS, i & MASK );
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Tells the original map to stop saving data for this snapshot. The snapshot must not be
+	 * used afterwards.
+	 */
+	public void release()
+	{
+		snapshot.release();
+	}
+}
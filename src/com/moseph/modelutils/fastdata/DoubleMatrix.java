@@ -23,13 +23,9 @@
 package com.moseph.modelutils.fastdata;
 
 
-import static java.lang.Math.abs;
-import static java.lang.Math.max;
-
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 
 
@@ -42,31 +38,21 @@ import java.util.Map;
  *
  * @param <T>
  */
-public class DoubleMatrix<T extends Indexed, S extends Indexed>
+public class DoubleMatrix<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S>
 {
 	public double[][] data;
-	int numRows;
-	int numCols;
-	IndexSet<T> colIndexes;
-	IndexSet<S> rowIndexes;
-	double initial = 0;
-	DoubleMap<T> colTotals;
-	DoubleMap<S> rowTotals;
-	boolean dirtyTotal;
-	boolean dirtyMaxMin;
-	boolean dirtyWeightedTotal;
-	double total;
-	double average;
-	T maxCol;
-	T minCol;
-	S maxRow;
-	S minRow;
-	NumberMap<T> colWeightings;
-	NumberMap<S> rowWeightings;
-	DoubleMap<T> colWeightedTotals;
-	DoubleMap<S> rowWeightedTotals;
-	private double vMin;
-	private double vMax;
+	/**
+	 * Number of rows processed at a time in matrix-vector products
+	 */
+	static final int ROW_BLOCK = 2048;
+	/**
+	 * Size of the square blocks used when transposing data in and out
+	 */
+	static final int TRANSPOSE_BLOCK = 64;
+	/**
+	 * Copies columns on write after snapshot()
+	 */
+	CopyOnWrite cow;
 	
 	public DoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes )
 	{
@@ -85,458 +71,404 @@ public class DoubleMatrix<T extends Indexed, S extends Indexed>
 	
 	public DoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial )
 	{
-		this.colIndexes = colIndexes;
-		this.rowIndexes = rowIndexes;
-		this.initial = initial;
-		numRows = rowIndexes.getMaxIndex() + 1;
-		numCols = colIndexes.getMaxIndex() + 1;
+		super( colIndexes, rowIndexes, initial );
 		data = new double[numCols][numRows];
-		colTotals = new DoubleMap<T>( colIndexes );
-		rowTotals = new DoubleMap<S>( rowIndexes );
-		colWeightedTotals = new DoubleMap<T>( colIndexes );
-		rowWeightedTotals = new DoubleMap<S>( rowIndexes );
-		
 		clear();
 	}
 	
-	public IndexSet<T> cols() { return colIndexes; }
-	public IndexSet<S> rows() { return rowIndexes; }
-	
+	@Override
 	public double get( int col, int row )
 	{
 		return data[col][row];
 	}
+	@Override
 	public double get( T col, S row )
 	{
-		return data[col.getIndex()][row.getIndex()];
-	}
-	
-	public double[][] getAll()
-	{
-		return data;
-	}
-	
-	public void put( T col, S row, double value )
-	{
-		data[col.getIndex()][row.getIndex()] = value;
-		dirty();
-	}
-	
-	public void put( int col, int row, double value )
-	{
-		data[col][row] = value;
-		dirty();
-	}
-	
-	public void put( double[][] in )
-	{
-		for( int i = 0; i < data.length; i++ ) {
-			System.arraycopy( in[i], 0, data[i], 0, data[i].length );
-		}
+		return data[colPos( col )][rowPos( row )];
 	}
 	
 	/**
-	 * Transposed version of put, if it is easer to have the input data in transposed form
-	 * @param in
+	 * As the generic version, but reading the column arrays directly
 	 */
-	public void putT( double[][] in )
+	@Override
+	void aggregate( Aggregate a, int colFrom, int colTo, int rowFrom, int rowTo )
 	{
-		for(int i = 0; i < colIndexes.size(); i++ ) {
-			for( int j = 0; j < rowIndexes.size(); j++ ) {
-				data[i][j] = in[j][i];
+		for( int i = colFrom; i < colTo; i++ )
+		{
+			int c = colSlots[i];
+			double[] column = data[c];
+			double cw = colWeights[c];
+			double sum = 0;
+			double weighted = 0;
+			for( int j = rowFrom; j < rowTo; j++ )
+			{
+				int r = rowSlots[j];
+				double value = column[r];
+				double w = value * rowWeights[r] * cw;
+				sum += value;
+				weighted += w;
+				a.add( i, j, r, value, w );
 			}
+			a.colTotals[c] += sum;
+			a.colWeightedTotals[c] += weighted;
+			a.total += sum;
 		}
 	}
 	
-	public void increment( T col, S row )
-	{
-		add( col, row, 1 );
-	}
-	
-	public void add( T col, S row, double amount )
-	{
-		data[col.getIndex()][row.getIndex()] += amount;
-		dirty();
-	}
-	
-	
-	public void clear()
+	/**
+	 * Runs over the columns as axpy operations, in blocks of rows small enough for the block of
+	 * the result to stay in cache
+	 */
+	@Override
+	void multiply( double[] v, double[] y )
 	{
-		for( double[] d : data ) {
-			Arrays.fill( d, initial );
+		if( rowSlots.length != numRows )
+		{
+			super.multiply( v, y );
+			return;
 		}
-		total = initial * size();
-		dirty();
-	}
-	
-	public int size()
-	{
-		return (numCols) * (numRows);
-	}
-	
-	public double getTotal()
-	{
-		if( dirtyTotal ) {
-			updateTotals();
+		for( int from = 0; from < numRows; from += ROW_BLOCK )
+		{
+			int to = Math.min( numRows, from + ROW_BLOCK );
+			for( int c : colSlots ) {
+				FastdataUtilities.axpy( v[c], data[c], y, from, to );
+			}
 		}
-		return total;
 	}
 	
-	public double getRowTotal( S row )
+	@Override
+	void leftMultiply( double[] v, double[] y )
 	{
-		if( dirtyTotal ) {
-			updateTotals();
+		if( rowSlots.length != numRows )
+		{
+			super.leftMultiply( v, y );
+			return;
 		}
-		return rowTotals.get( row );
-	}
-	
-	public double getColumnTotal( T col )
-	{
-		if( dirtyTotal ) {
-			updateTotals();
+		for( int c : colSlots ) {
+			y[c] = FastdataUtilities.dot( data[c], v, numRows );
 		}
-		return colTotals.get( col );
 	}
 	
-	public double getAverage()
-	{
-		return getTotal() / size();
-	}
-	
-	public double getColAverage( T col )
-	{
-		return getColumnTotal( col ) / numRows;
-	}
-	
-	public double getRowAverage( S row )
+	public double[][] getAll()
 	{
-		return getRowTotal( row ) / numCols;
+		return data;
 	}
 	
-	public double getWeightedColAverage( T col )
+	@Override
+	public void put( T col, S row, double value )
 	{
-		if( rowWeightings != null ) {
-			return getWeightedColTotal( col );
-		}
-		return getColAverage( col );
+		put( colPos( col ), rowPos( row ), value );
 	}
 	
-	public double getWeightedRowAverage( S row )
+	@Override
+	public void put( int col, int row, double value )
 	{
-		if( colWeightings != null ) {
-			return getWeightedRowTotal( row ) / colWeightings.getDoubleTotal();
+		if( cow != null ) {
+			cow.beforeWrite( col );
 		}
-		return getRowAverage( row );
+		double[] column = data[col];
+		double old = column[row];
+		column[row] = value;
+		changed( col, row, value - old );
 	}
 	
-	public DoubleMap<T> getWeightedColTotals()
+	/**
+	 * Copies in a whole array of data, laid out as data is ([col][row])
+	 * @param in
+	 */
+	public void put( double[][] in )
 	{
-		if( dirtyWeightedTotal ) {
-			updateWeightedTotals();
+		if( cow != null ) {
+			cow.beforeWriteAll();
 		}
-		return colWeightedTotals;
-	}
-	
-	public double getWeightedColTotal( T col )
-	{
-		if( dirtyWeightedTotal ) {
-			updateWeightedTotals();
+		for( int i = 0; i < data.length; i++ ) {
+			System.arraycopy( in[i], 0, data[i], 0, data[i].length );
 		}
-		return colWeightedTotals.get( col );
+		dirty();
 	}
 	
-	public DoubleMap<S> getWeightedRowTotals()
-	{
-		if( dirtyWeightedTotal ) {
-			updateWeightedTotals();
-		}
-		return rowWeightedTotals;
-	}
-	public double getWeightedRowTotal( S row )
+	/**
+	 * Transposed version of put, if it is easer to have the input data in transposed form
+	 * ([row][col])
+	 * @param in at least numRows rows, each of at least numCols values
+	 * @throws IllegalArgumentException if in is too small, before anything is written
+	 */
+	public void putT( double[][] in )
 	{
-		if( dirtyWeightedTotal ) {
-			updateWeightedTotals();
+		if( in.length < numRows ) {
+			throw new IllegalArgumentException( "Expected " + numRows + " rows, got " + in.length );
 		}
-		return rowWeightedTotals.get( row );
-	}
-	
-	public T getMaxCol()
-	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		for( int r = 0; r < numRows; r++ ) {
+			if( in[r].length < numCols ) {
+				throw new IllegalArgumentException( "Expected " + numCols + " values in row " + r + ", got " + in[r].length );
+			}
 		}
-		return maxCol;
-	}
-	
-	public T getMinCol()
-	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		if( cow != null ) {
+			cow.beforeWriteAll();
 		}
-		return minCol;
-	}
-	
-	public S getMaxRow()
-	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		for( int r0 = 0; r0 < numRows; r0 += TRANSPOSE_BLOCK )
+		{
+			int r1 = Math.min( numRows, r0 + TRANSPOSE_BLOCK );
+			for( int c0 = 0; c0 < numCols; c0 += TRANSPOSE_BLOCK )
+			{
+				int c1 = Math.min( numCols, c0 + TRANSPOSE_BLOCK );
+				for( int r = r0; r < r1; r++ )
+				{
+					double[] row = in[r];
+					for( int c = c0; c < c1; c++ ) {
+						data[c][r] = row[c];
+					}
+				}
+			}
 		}
-		return maxRow;
+		dirty();
 	}
 	
-	public S getMinRow()
+	/**
+	 * Copies a block of values in from a flat array. The block covers storage positions
+	 * colFrom to colFrom + cols - 1 and rowFrom to rowFrom + rows - 1 (positions are the key
+	 * indices unless the index sets are compact). Cell (colFrom + c, rowFrom + r) is read from
+	 * source[offset + c * colStride + r * rowStride], so a row-major source has colStride 1 and
+	 * a column-major one has rowStride 1. Row-major (or other strided) sources are copied a
+	 * block at a time to keep the transpose cache friendly.
+	 * 
+	 * Aggregates are invalidated once, at the end.
+	 */
+	public void importFrom( double[] source, int offset, int colStride, int rowStride, int colFrom, int rowFrom, int cols, int rows )
 	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		checkRegion( colFrom, rowFrom, cols, rows );
+		checkExtent( source.length, offset, colStride, rowStride, cols, rows );
+		beforeWrite( colFrom, cols );
+		if( rowStride == 1 )
+		{
+			for( int c = 0; c < cols; c++ ) {
+				System.arraycopy( source, offset + c * colStride, data[colFrom + c], rowFrom, rows );
+			}
 		}
-		return minRow;
-	}
-	
-	public double getMax()
-	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		else
+		{
+			for( int c0 = 0; c0 < cols; c0 += TRANSPOSE_BLOCK ) {
+				for( int r0 = 0; r0 < rows; r0 += TRANSPOSE_BLOCK )
+				{
+					int c1 = Math.min( cols, c0 + TRANSPOSE_BLOCK );
+					int r1 = Math.min( rows, r0 + TRANSPOSE_BLOCK );
+					for( int c = c0; c < c1; c++ )
+					{
+						double[] column = data[colFrom + c];
+						int base = offset + c * colStride;
+						for( int r = r0; r < r1; r++ ) {
+							column[rowFrom + r] = source[base + r * rowStride];
+						}
+					}
+				}
+			}
 		}
-		return vMax;
+		dirty();
 	}
 	
-	public double getMin()
+	/**
+	 * Copies a block of values out to a flat array, with the layout described in importFrom
+	 */
+	public void exportTo( double[] target, int offset, int colStride, int rowStride, int colFrom, int rowFrom, int cols, int rows )
 	{
-		if( dirtyMaxMin ) {
-			updateMaxMin();
+		checkRegion( colFrom, rowFrom, cols, rows );
+		checkExtent( target.length, offset, colStride, rowStride, cols, rows );
+		if( rowStride == 1 )
+		{
+			for( int c = 0; c < cols; c++ ) {
+				System.arraycopy( data[colFrom + c], rowFrom, target, offset + c * colStride, rows );
+			}
+			return;
 		}
-		return vMin;
-	}
-	
-	void updateTotals()
-	{
-		total = 0;
-		colTotals.clear();
-		rowTotals.clear();
-		for( T c : colIndexes ) {
-			for( S r : rowIndexes )
+		for( int r0 = 0; r0 < rows; r0 += TRANSPOSE_BLOCK ) {
+			for( int c0 = 0; c0 < cols; c0 += TRANSPOSE_BLOCK )
 			{
-				double value = get( c, r );
-				colTotals.add( c, value );
-				rowTotals.add( r, value );
-				total += value;
+				int c1 = Math.min( cols, c0 + TRANSPOSE_BLOCK );
+				int r1 = Math.min( rows, r0 + TRANSPOSE_BLOCK );
+				for( int c = c0; c < c1; c++ )
+				{
+					double[] column = data[colFrom + c];
+					int base = offset + c * colStride;
+					for( int r = r0; r < r1; r++ ) {
+						target[base + r * rowStride] = column[rowFrom + r];
+					}
+				}
 			}
 		}
-		dirtyTotal = false;
 	}
 	
-	public void updateWeightedTotals()
+	/**
+	 * As importFrom( double[], ... ), reading from absolute positions in a buffer (e.g. one
+	 * shared with native code). The buffer's position and limit are left alone.
+	 */
+	public void importFrom( DoubleBuffer source, int offset, int colStride, int rowStride, int colFrom, int rowFrom, int cols, int rows )
 	{
-		colWeightedTotals.clear();
-		rowWeightedTotals.clear();
-		for( T c : colIndexes ) {
-			for( S r : rowIndexes )
+		checkRegion( colFrom, rowFrom, cols, rows );
+		checkExtent( source.limit(), offset, colStride, rowStride, cols, rows );
+		beforeWrite( colFrom, cols );
+		DoubleBuffer b = source.duplicate();
+		if( rowStride == 1 )
+		{
+			for( int c = 0; c < cols; c++ )
 			{
-				double value = get( c, r );
-				double rowWeight = 1;
-				double colWeight = 1;
-				if( rowWeightings != null )
-				{
-					rowWeight = rowWeightings.getDouble( r );
-				}
-				if( colWeightings != null ) 
+				b.position( offset + c * colStride );
+				b.get( data[colFrom + c], rowFrom, rows );
+			}
+		}
+		else
+		{
+			for( int c0 = 0; c0 < cols; c0 += TRANSPOSE_BLOCK ) {
+				for( int r0 = 0; r0 < rows; r0 += TRANSPOSE_BLOCK )
 				{
-					colWeight = colWeightings.getDouble( c );
+					int c1 = Math.min( cols, c0 + TRANSPOSE_BLOCK );
+					int r1 = Math.min( rows, r0 + TRANSPOSE_BLOCK );
+					for( int c = c0; c < c1; c++ )
+					{
+						double[] column = data[colFrom + c];
+						int base = offset + c * colStride;
+						for( int r = r0; r < r1; r++ ) {
+							column[rowFrom + r] = b.get( base + r * rowStride );
+						}
+					}
 				}
-				colWeightedTotals.add( c, value * rowWeight * colWeight );
-				rowWeightedTotals.add( r, value * rowWeight * colWeight );
 			}
 		}
-		dirtyWeightedTotal = false;
+		dirty();
 	}
 	
-	void updateMaxMin()
+	/**
+	 * As exportTo( double[], ... ), writing to absolute positions in a buffer. The buffer's
+	 * position and limit are left alone.
+	 */
+	public void exportTo( DoubleBuffer target, int offset, int colStride, int rowStride, int colFrom, int rowFrom, int cols, int rows )
 	{
-		vMax = -Double.MAX_VALUE;
-		vMin = Double.MAX_VALUE;
-		for( T col : colIndexes ) {
-			for( S row : rowIndexes )
+		checkRegion( colFrom, rowFrom, cols, rows );
+		checkExtent( target.limit(), offset, colStride, rowStride, cols, rows );
+		DoubleBuffer b = target.duplicate();
+		if( rowStride == 1 )
 		{
-			double val = data[col.getIndex()][row.getIndex()];
-			if( val > vMax )
+			for( int c = 0; c < cols; c++ )
 			{
-				vMax = val;
-				maxCol = col;
-				maxRow = row;
+				b.position( offset + c * colStride );
+				b.put( data[colFrom + c], rowFrom, rows );
 			}
-			if( val < vMin )
+			return;
+		}
+		for( int r0 = 0; r0 < rows; r0 += TRANSPOSE_BLOCK ) {
+			for( int c0 = 0; c0 < cols; c0 += TRANSPOSE_BLOCK )
 			{
-				vMin = val;
-				minCol = col;
-				minRow = row;
+				int c1 = Math.min( cols, c0 + TRANSPOSE_BLOCK );
+				int r1 = Math.min( rows, r0 + TRANSPOSE_BLOCK );
+				for( int c = c0; c < c1; c++ )
+				{
+					double[] column = data[colFrom + c];
+					int base = offset + c * colStride;
+					for( int r = r0; r < r1; r++ ) {
+						b.put( base + r * rowStride, column[rowFrom + r] );
+					}
+				}
 			}
 		}
-		}
-	}
-	
-	
-	public void dirty()
-	{
-		dirtyTotal = true;
-		dirtyMaxMin = true;
-		dirtyWeightedTotal = true;
-	}
-	
-	public void copyInto( DoubleMatrix<T,S> target )
-	{
-		for( T col : colIndexes ) {
-			for( S row : rowIndexes ) {
-				target.put(col, row, get( col, row ) );
-			}
-		} 
 	}
 	
-	public void copyFrom( DoubleMatrix<T,S> source )
+	void checkRegion( int colFrom, int rowFrom, int cols, int rows )
 	{
-		source.copyInto( this );
-	}
-	
-	public void addInto( DoubleMatrix<T,S> target )
-	{
-		for( T col : colIndexes ) {
-			for( S row : rowIndexes ) {
-				target.add(col, row, get( col, row ) );
-			}
-		} 
+		if( colFrom < 0 || rowFrom < 0 || cols < 0 || rows < 0 || colFrom + cols > numCols || rowFrom + rows > numRows ) {
+			throw new IllegalArgumentException( "Block of " + cols + "x" + rows + " at " + colFrom + "," + rowFrom
+					+ " is outside the " + numCols + "x" + numRows + " matrix" );
+		}
 	}
 	
-	public void copyInto( Map<T, Map<S, Double>> target )
+	/**
+	 * Checks that every position a block with the given layout touches lies within a flat
+	 * array or buffer of the given length, so a bad layout fails before anything is copied
+	 */
+	static void checkExtent( int length, int offset, int colStride, int rowStride, int cols, int rows )
 	{
-		for( T col : colIndexes )
-		{
-			// TODO check if LinkedHashMap required
-			if (!target.containsKey(col)) {
-				target.put( col, new LinkedHashMap<S, Double>() );
-			}
-			for( S row : rowIndexes ) {
-				target.get( col ).put( row, get( col, row ) );
-			}
+		if( cols == 0 || rows == 0 ) {
+			return;
+		}
+		long colSpan = ( cols - 1 ) * (long)colStride;
+		long rowSpan = ( rows - 1 ) * (long)rowStride;
+		long lowest = offset + Math.min( 0, colSpan ) + Math.min( 0, rowSpan );
+		long highest = offset + Math.max( 0, colSpan ) + Math.max( 0, rowSpan );
+		if( lowest < 0 || highest >= length ) {
+			throw new IllegalArgumentException( "Block of " + cols + "x" + rows + " at offset " + offset + " with strides "
+					+ colStride + "," + rowStride + " runs from " + lowest + " to " + highest + ", outside 0 to " + ( length - 1 ) );
 		}
 	}
 	
-	public void copyFrom( Map<? extends T, Map<? extends S, Double>> source )
+	void beforeWrite( int colFrom, int cols )
 	{
-		for( T col : colIndexes )
-		{
-			if( ! colIndexes.containsKey( col )) {
-				continue;
-			}
-			for( S row : rowIndexes )
-			{
-				if( ! rowIndexes.containsKey( row )) {
-					continue;
-				}
-					put(col, row, source.get( col ).get( row ) );
+		if( cow != null ) {
+			for( int c = colFrom; c < colFrom + cols; c++ ) {
+				cow.beforeWrite( c );
 			}
 		}
 	}
 	
 	@Override
-	public String toString()
-	{
-		return toMap().toString();
-	}
-	
-	public Map<T, Map<S,Double>> toMap()
+	public void add( T col, S row, double amount )
 	{
-		// TODO check if LinkedHashMap required
-		Map<T, Map<S, Double>> map = new LinkedHashMap<T, Map<S, Double>>();
-		copyInto( map );
-		return map;
+		add( colPos( col ), rowPos( row ), amount );
 	}
 	
-	public void setColumnWeightings( NumberMap<T> colW )
+	@Override
+	public void add( int col, int row, double amount )
 	{
-		dirtyWeightedTotal = true;
-		colWeightings = colW;
+		if( cow != null ) {
+			cow.beforeWrite( col );
+		}
+		data[col][row] += amount;
+		changed( col, row, amount );
 	}
 	
-	public void setRowWeightings( NumberMap<S> rowW )
-	{
-		dirtyWeightedTotal = true;
-		rowWeightings = rowW;
-	}
-
-	public int getNumCols()
-	{
-		return numCols;
-	}
-
-	public int getNumRows()
-	{
-		return numRows;
-	}
 	
-	public DoubleMap<S> getColumn( T column )
+	@Override
+	public void clear()
 	{
-		DoubleMap<S> col = new DoubleMap<S>( rowIndexes );
-		for( S s : rowIndexes ) {
-			col.put( s, get( column, s ) );
+		if( cow != null ) {
+			cow.beforeWriteAll();
 		}
-		return col;
+		for( double[] d : data ) {
+			Arrays.fill( d, initial );
+		}
+		total = initial * size();
+		dirty();
 	}
 	
-	public DoubleMap<T> getRow( S row )
+	/**
+	 * Takes an immutable snapshot of the matrix's current values in O(1) time. Nothing is copied
+	 * up front; afterwards, the first write to each column copies that column for the snapshot.
+	 * Snapshots can be read from other threads while this matrix carries on changing, but must be
+	 * taken by the thread that writes to the matrix.
+	 * 
+	 * Writes straight into the public data array bypass this, and will show up in snapshots.
+	 * Call release() on snapshots when done with them to stop columns being copied for them.
+	 * @return
+	 */
+	public DoubleMatrixSnapshot<T, S> snapshot()
 	{
-		DoubleMap<T> ret = new DoubleMap<T>( colIndexes );
-		for( T t : colIndexes ) {
-			ret.put( t, get( t, row ) );
+		if( cow == null )
+		{
+			cow = new CopyOnWrite( new CopyOnWrite.Chunks() {
+				public double[] copyChunk( int chunk ) { return data[chunk].clone(); }
+				public double read( int chunk, int offset ) { return data[chunk][offset]; }
+			}, numCols );
 		}
-		return ret;
+		DoubleMatrixSnapshot<T, S> s = new DoubleMatrixSnapshot<T, S>( colIndexes, rowIndexes, initial, cow.snapshot() );
+		s.colWeightings = colWeightings;
+		s.rowWeightings = rowWeightings;
+		return s;
 	}
 	
-	public T getColKey( int index ) { return colIndexes.get( index ); }
-	public S getRowKey( int index ) { return rowIndexes.get( index ); }
-	
 	/**
 	 * Creates a new matrix with the same structure (but no data)
 	 * @return
 	 */
+	@Override
 	public DoubleMatrix<T, S> duplicate()
 	{
 		return new DoubleMatrix<T, S>( colIndexes, rowIndexes );
 	}
-	
-	public String prettyPrint()
-	{
-		String colTitle = "RowNames";
-		int width = colTitle.length();
-		int pres = 1;
-		double max = getMax();
-		double min = getMin();
-		System.out.println("Max: " + max + " Min: " + min);
-		if( abs(max )< 1 || ( abs(min) < 1 && abs(min) > 0 )) {
-			pres = width-3;
-		}
-		for( T c : colIndexes ) {
-			width = max(width,(c+"").length());
-		}
-		for( S r : rowIndexes ) {
-			width = max(width,(r+"").length());
-		}
-		System.out.println("Width: " + width);
-		String stringF = "| %"+width+"s ";
-		String doubleF = "| %"+width+"."+pres+"f ";
-		//String doubleF = "%9.3f";
-		String lineEnd = " |\n";
-		StringBuffer out = new StringBuffer(String.format( stringF, "Rownames" ));
-		for( T c : colIndexes ) {
-			out.append( String.format( stringF, c.toString() ) );
-		}
-		out.append(lineEnd);
-		for( S r : rowIndexes ) 
-		{
-			out.append(String.format( stringF, r.toString()));
-			for( T c : colIndexes ) {
-				out.append( String.format( doubleF, get(c,r) ) );
-			}
-			out.append(lineEnd);
-		}
-		return out.toString();
-	}
 }
@@ -0,0 +1,196 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+/**
+ * An immutable view of a DoubleMatrix's values at the time DoubleMatrix.snapshot() was called.
+ * Safe to read from other threads while the original changes, and from several threads at
+ * once. Totals and other aggregates are computed on first use and cached; the methods which
+ * do so are synchronized. Any attempt to change the values throws UnsupportedOperationException.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class DoubleMatrixSnapshot<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S>
+{
+	CopyOnWrite.Snapshot snapshot;
+	
+	DoubleMatrixSnapshot( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial, CopyOnWrite.Snapshot snapshot )
+	{
+		super( colIndexes, rowIndexes, initial );
+		this.snapshot = snapshot;
+		dirty();
+	}
+	
+	@Override
+	public double get( int col, int row )
+	{
+		return snapshot.get( col, row );
+	}
+	
+	@Override
+	public void put( int col, int row, double value )
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	@Override
+	public void add( int col, int row, double amount )
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	@Override
+	public void clear()
+	{
+		throw new UnsupportedOperationException( "Snapshots can't be modified" );
+	}
+	
+	//Aggregates are filled in lazily, so readers on different threads have to take turns
+	@Override
+	public synchronized double getTotal()
+	{
+		return super.getTotal();
+	}
+	
+	@Override
+	public synchronized double getRowTotal( S row )
+	{
+		return super.getRowTotal( row );
+	}
+	
+	@Override
+	public synchronized double getColumnTotal( T col )
+	{
+		return super.getColumnTotal( col );
+	}
+	
+	@Override
+	public synchronized DoubleMap<T> getWeightedColTotals()
+	{
+		return super.getWeightedColTotals();
+	}
+	
+	@Override
+	public synchronized double getWeightedColTotal( T col )
+	{
+		return super.getWeightedColTotal( col );
+	}
+	
+	@Override
+	public synchronized DoubleMap<S> getWeightedRowTotals()
+	{
+		return super.getWeightedRowTotals();
+	}
+	
+	@Override
+	public synchronized double getWeightedRowTotal( S row )
+	{
+		return super.getWeightedRowTotal( row );
+	}
+	
+	@Override
+	public synchronized T getMaxCol()
+	{
+		return super.getMaxCol();
+	}
+	
+	@Override
+	public synchronized T getMinCol()
+	{
+		return super.getMinCol();
+	}
+	
+	@Override
+	public synchronized S getMaxRow()
+	{
+		return super.getMaxRow();
+	}
+	
+	@Override
+	public synchronized S getMinRow()
+	{
+		return super.getMinRow();
+	}
+	
+	@Override
+	public synchronized double getMax()
+	{
+		return super.getMax();
+	}
+	
+	@Override
+	public synchronized double getMin()
+	{
+		return super.getMin();
+	}
+	
+	@Override
+	public synchronized void setColumnWeightings( NumberMap<T> colW )
+	{
+		super.setColumnWeightings( colW );
+	}
+	
+	@Override
+	public synchronized void setRowWeightings( NumberMap<S> rowW )
+	{
+		super.setRowWeightings( rowW );
+	}
+	
+	@Override
+	public synchronized void updateWeightedTotals()
+	{
+		super.updateWeightedTotals();
+	}
+	
+	/**
+	 * Creates a new, modifiable, DoubleMatrix with the same structure (but no data)
+	 * @return
+	 */
+	@Override
+	public DoubleMatrix<T, S> duplicate()
+	{
+		return new DoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+	}
+	
+	/**
+	 * Copies the snapshot into a new, modifiable, DoubleMatrix
+	 * @return
+	 */
+	public DoubleMatrix<T, S> toDoubleMatrix()
+	{
+		DoubleMatrix<T, S> ret = duplicate();
+		copyInto( ret );
+		return ret;
+	}
+	
+	/**
+	 * Tells the original matrix to stop saving data for this snapshot. The snapshot must not be
+	 * used afterwards.
+	 */
+	public void release()
+	{
+		snapshot.release();
+	}
+}
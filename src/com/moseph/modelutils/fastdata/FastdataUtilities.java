@@ -1,6 +1,86 @@
 package com.moseph.modelutils.fastdata;
 
+/**
+ * Primitive array kernels used by the fastdata structures for bulk operations.
+ *
+ * The loops are kept simple and branch free so that the JIT can unroll and vectorise them.
+ */
 public class FastdataUtilities
 {
+	/**
+	 * target[i] = source[i] for the first length elements
+	 */
+	public static void copy( double[] source, double[] target, int length )
+	{
+		System.arraycopy( source, 0, target, 0, length );
+	}
 
+	/**
+	 * target[i] += source[i] for the first length elements
+	 */
+	public static void add( double[] source, double[] target, int length )
+	{
+		for( int i = 0; i < length; i++ ) {
+			target[i] += source[i];
+		}
+	}
+
+	/**
+	 * target[i] = v * source[i] for the first length elements
+	 */
+	public static void multiply( double v, double[] source, double[] target, int length )
+	{
+		for( int i = 0; i < length; i++ ) {
+			target[i] = v * source[i];
+		}
+	}
+
+	/**
+	 * target[i] = a[i] - b[i] for the first length elements
+	 */
+	public static void subtract( double[] a, double[] b, double[] target, int length )
+	{
+		for( int i = 0; i < length; i++ ) {
+			target[i] = a[i] - b[i];
+		}
+	}
+
+	/**
+	 * y[i] += a * x[i] for from <= i < to
+	 */
+	public static void axpy( double a, double[] x, double[] y, int from, int to )
+	{
+		for( int i = from; i < to; i++ ) {
+			y[i] += a * x[i];
+		}
+	}
+
+	/**
+	 * Sum of a[i] * b[i] over the first length elements. Uses four independent accumulators,
+	 * so the result can differ from a naive loop in the last bits.
+	 */
+	public static double dot( double[] a, double[] b, int length )
+	{
+		return dot( a, b, 0, length );
+	}
+
+	/**
+	 * Sum of a[i] * b[i] for from <= i < to, as dot( a, b, length )
+	 */
+	public static double dot( double[] a, double[] b, int from, int to )
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = from;
+		for( ; i + 3 < to; i += 4 )
+		{
+			s0 += a[i] * b[i];
+			s1 += a[i+1] * b[i+1];
+			s2 += a[i+2] * b[i+2];
+			s3 += a[i+3] * b[i+3];
+		}
+		for( ; i < to; i++ ) {
+			s0 += a[i] * b[i];
+		}
+		return ( s0 + s1 ) + ( s2 + s3 );
+	}
 }
@@ -0,0 +1,263 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * Version of DoubleMatrix which keeps all its values in one contiguous array, in either
+ * row-major or column-major order (chosen at construction), rather than one array per column.
+ * 
+ * Cell (col,row) is at data[col * getColStride() + row * getRowStride()]. Scans along the
+ * contiguous direction (rows for ROW_MAJOR, columns for COLUMN_MAJOR) run straight through memory,
+ * and aggregates are computed in storage order whichever the layout.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class FlatDoubleMatrix<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S>
+{
+	public enum Layout { ROW_MAJOR, COLUMN_MAJOR }
+	
+	public double[] data;
+	Layout layout;
+	int colStride;
+	int rowStride;
+	
+	public FlatDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, Layout.ROW_MAJOR );
+	}
+	
+	public FlatDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes, Layout layout )
+	{
+		this( new ArrayIndexSet<T>( colIndexes ), new ArrayIndexSet<S>( rowIndexes ), 0, layout );
+	}
+	
+	public FlatDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, Layout layout )
+	{
+		this( colIndexes, rowIndexes, 0, layout );
+	}
+	
+	public FlatDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial, Layout layout )
+	{
+		super( colIndexes, rowIndexes, initial );
+		if( (long)numCols * numRows > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( "Matrix of " + numCols + "x" + numRows + " is too big for a single array" );
+		}
+		this.layout = layout;
+		if( layout == Layout.ROW_MAJOR )
+		{
+			colStride = 1;
+			rowStride = numCols;
+		}
+		else
+		{
+			colStride = numRows;
+			rowStride = 1;
+		}
+		data = new double[numCols * numRows];
+		clear();
+	}
+	
+	/**
+	 * @param col
+	 * @param row
+	 * @return the position of the cell in data
+	 */
+	public int offset( T col, S row )
+	{
+		return colPos( col ) * colStride + rowPos( row ) * rowStride;
+	}
+	
+	@Override
+	public double get( int col, int row )
+	{
+		return data[col * colStride + row * rowStride];
+	}
+	
+	@Override
+	public void put( int col, int row, double value )
+	{
+		int i = col * colStride + row * rowStride;
+		double old = data[i];
+		data[i] = value;
+		changed( col, row, value - old );
+	}
+	
+	@Override
+	public void add( int col, int row, double amount )
+	{
+		data[col * colStride + row * rowStride] += amount;
+		changed( col, row, amount );
+	}
+	
+	public double[] getAll()
+	{
+		return data;
+	}
+	
+	public Layout getLayout() { return layout; }
+	/**
+	 * @return the distance in data between neighbouring columns of a row
+	 */
+	public int getColStride() { return colStride; }
+	/**
+	 * @return the distance in data between neighbouring rows of a column
+	 */
+	public int getRowStride() { return rowStride; }
+	
+	@Override
+	public void clear()
+	{
+		Arrays.fill( data, initial );
+		total = initial * size();
+		dirty();
+	}
+	
+	/**
+	 * Visits cells in storage order: down each column for COLUMN_MAJOR, and along each row
+	 * (restricted to the given columns) for ROW_MAJOR
+	 */
+	@Override
+	void aggregate( Aggregate a, int colFrom, int colTo, int rowFrom, int rowTo )
+	{
+		if( layout == Layout.COLUMN_MAJOR )
+		{
+			for( int i = colFrom; i < colTo; i++ )
+			{
+				int c = colSlots[i];
+				int base = c * colStride;
+				double cw = colWeights[c];
+				double sum = 0;
+				double weighted = 0;
+				for( int j = rowFrom; j < rowTo; j++ )
+				{
+					int r = rowSlots[j];
+					double value = data[base + r];
+					double w = value * rowWeights[r] * cw;
+					sum += value;
+					weighted += w;
+					a.add( i, j, r, value, w );
+				}
+				a.colTotals[c] += sum;
+				a.colWeightedTotals[c] += weighted;
+				a.total += sum;
+			}
+			return;
+		}
+		for( int j = rowFrom; j < rowTo; j++ )
+		{
+			int r = rowSlots[j];
+			int base = r * rowStride;
+			double rw = rowWeights[r];
+			double sum = 0;
+			double weighted = 0;
+			for( int i = colFrom; i < colTo; i++ )
+			{
+				int c = colSlots[i];
+				double value = data[base + c];
+				double w = value * rw * colWeights[c];
+				a.colTotals[c] += value;
+				a.colWeightedTotals[c] += w;
+				sum += value;
+				weighted += w;
+				a.extremes( i, j, value );
+			}
+			a.rowTotals[r] += sum;
+			a.rowWeightedTotals[r] += weighted;
+			a.total += sum;
+		}
+	}
+	
+	@Override
+	public DoubleMap<S> getColumn( T column )
+	{
+		DoubleMap<S> col = new DoubleMap<S>( rowIndexes );
+		int base = colPos( column ) * colStride;
+		for( int r : rowSlots ) {
+			col.data[r] = data[base + r * rowStride];
+		}
+		col.dirty();
+		return col;
+	}
+	
+	@Override
+	public DoubleMap<T> getRow( S row )
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( colIndexes );
+		int base = rowPos( row ) * rowStride;
+		for( int c : colSlots ) {
+			ret.data[c] = data[base + c * colStride];
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Creates a new matrix with the same structure and layout (but no data)
+	 * @return
+	 */
+	@Override
+	public FlatDoubleMatrix<T, S> duplicate()
+	{
+		return new FlatDoubleMatrix<T, S>( colIndexes, rowIndexes, initial, layout );
+	}
+	
+	/**
+	 * Copies a DoubleMatrix into a flat matrix with the given layout
+	 * @param source
+	 * @param layout
+	 * @return
+	 */
+	public static <T extends Indexed, S extends Indexed> FlatDoubleMatrix<T, S> fromDoubleMatrix( DoubleMatrix<T, S> source, Layout layout )
+	{
+		FlatDoubleMatrix<T, S> ret = new FlatDoubleMatrix<T, S>( source.colIndexes, source.rowIndexes, source.initial, layout );
+		for( int c = 0; c < ret.numCols; c++ ) {
+			for( int r = 0; r < ret.numRows; r++ ) {
+				ret.data[c * ret.colStride + r * ret.rowStride] = source.data[c][r];
+			}
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Copies the values into a standard DoubleMatrix
+	 * @return
+	 */
+	public DoubleMatrix<T, S> toDoubleMatrix()
+	{
+		DoubleMatrix<T, S> ret = new DoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+		for( int c = 0; c < numCols; c++ ) {
+			for( int r = 0; r < numRows; r++ ) {
+				ret.data[c][r] = data[c * colStride + r * rowStride];
+			}
+		}
+		ret.dirty();
+		return ret;
+	}
+}
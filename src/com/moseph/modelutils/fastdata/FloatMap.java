@@ -0,0 +1,199 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Reduced precision version of DoubleMap, which stores its values as floats (about 7 significant
+ * digits) to halve memory use and bandwidth. Values are read and written as doubles, and totals
+ * are accumulated in double precision.
+ *
+ * @param <T>
+ */
+public class FloatMap<T extends Indexed> extends AbstractNumberMap<T>
+{
+	public float[] data;
+	double initial = 0;
+	double total;
+
+	public FloatMap( Collection<? extends T> ind )
+	{
+		this( ind, 0d );
+	}
+	
+	public FloatMap( Collection<? extends T> indexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( indexes ), initial );
+	}
+	
+	public FloatMap( IndexSet<T> indexes)
+	{
+		this( indexes, 0 );
+	}
+	
+	public FloatMap( IndexSet<T> indexes, double initial )
+	{
+		super( indexes );
+		this.initial = initial;
+		data = new float[indexes.getStorageSize()];
+		clear();
+	}
+	
+	public double get( T key )
+	{
+		return data[pos( key )];
+	}
+	
+	public float[] getAll()
+	{
+		return data;
+	}
+	
+	public void put( T key, double value )
+	{
+		data[pos( key )] = (float)value;
+		dirty();
+	}
+	
+	public void put( float[] values )
+	{
+		if( values.length != data.length ) {
+			throw new RuntimeException("Wrong length array passed to FloatMap. Got " + values.length + " expected " + data.length);
+		}
+		System.arraycopy( values, 0, data, 0, data.length );
+		dirty();
+	}
+	
+	public void increment( T key )
+	{
+		add( key, 1 );
+	}
+	
+	public void add( T key, double amount )
+	{
+		int i = pos( key );
+		data[i] = (float)( data[i] + amount );
+		dirty();
+	}
+	
+	@Override
+	public void clear()
+	{
+		Arrays.fill( data, (float)initial );
+		total = (float)initial * (double)size();
+		dirty();
+	}
+	
+	public double getTotal()
+	{
+		if( dirtyTotal ) {
+			updateTotals();
+		}
+		return total;
+	}
+	
+	@Override
+	void updateTotals()
+	{
+		double t = 0;
+		for( float v : data ) {
+			t += v;
+		}
+		total = t;
+		dirtyTotal = false;
+	}
+	
+	@Override
+	void updateAverage()
+	{
+		average = getTotal() / size();
+	}
+	
+	@Override
+	public Map<T, Double> toMap()
+	{
+		Map<T, Double> map = new LinkedHashMap<T, Double>();
+		for( T k : getKeys() ) {
+			map.put( k, get(k) );
+		}
+		return map;
+	}
+	
+	@Override
+	public void addDouble( T key, double value ) { add( key, value ); }
+	@Override
+	public double getDouble( T key ) { return get( key ); }
+	@Override
+	public void putDouble( T key, double value ) { put( key, value ); }
+	@Override
+	public double getDoubleTotal() { return getTotal(); }
+	
+	/**
+	 * Creates a FloatMap with the same structure, but no data in
+	 * @return
+	 */
+	public FloatMap<T> duplicate() { return new FloatMap<T>( indexes, initial ); }
+	
+	/**
+	 * Creates a copy of this, with the same data in
+	 * @return
+	 */
+	public FloatMap<T> copy()
+	{
+		FloatMap<T> ret = duplicate();
+		ret.put( data );
+		return ret;
+	}
+	
+	/**
+	 * Copies the values into a full precision DoubleMap
+	 * @return
+	 */
+	public DoubleMap<T> toDoubleMap()
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( indexes, initial );
+		for( int i = 0; i < data.length; i++ ) {
+			ret.data[i] = data[i];
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("FloatMap: ");
+		int count = 0;
+		for (T k : getKeys()) {
+			count++;
+			buffer.append(k + " = " + get(k)
+					+ (count <= this.maxIndex ? ", " : ""));
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,128 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * Reduced precision version of DoubleMatrix, which stores its values as floats (about 7
+ * significant digits) to halve memory use and bandwidth. Values are read and written as doubles,
+ * and all totals are accumulated in double precision.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class FloatMatrix<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S>
+{
+	public float[][] data;
+	
+	public FloatMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public FloatMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( colIndexes ), new ArrayIndexSet<S>( rowIndexes ), initial );
+	}
+	
+	public FloatMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public FloatMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial )
+	{
+		super( colIndexes, rowIndexes, initial );
+		data = new float[numCols][numRows];
+		clear();
+	}
+	
+	@Override
+	public double get( int col, int row )
+	{
+		return data[col][row];
+	}
+	
+	public float[][] getAll()
+	{
+		return data;
+	}
+	
+	@Override
+	public void put( int col, int row, double value )
+	{
+		float[] column = data[col];
+		float old = column[row];
+		column[row] = (float)value;
+		changed( col, row, (double)column[row] - old );
+	}
+	
+	@Override
+	public void add( int col, int row, double amount )
+	{
+		float[] column = data[col];
+		float old = column[row];
+		column[row] = (float)( old + amount );
+		changed( col, row, (double)column[row] - old );
+	}
+	
+	@Override
+	public void clear()
+	{
+		for( float[] d : data ) {
+			Arrays.fill( d, (float)initial );
+		}
+		total = (float)initial * (double)size();
+		dirty();
+	}
+	
+	/**
+	 * Creates a new matrix with the same structure (but no data)
+	 * @return
+	 */
+	@Override
+	public FloatMatrix<T, S> duplicate()
+	{
+		return new FloatMatrix<T, S>( colIndexes, rowIndexes );
+	}
+	
+	/**
+	 * Copies the values into a full precision DoubleMatrix
+	 * @return
+	 */
+	public DoubleMatrix<T, S> toDoubleMatrix()
+	{
+		DoubleMatrix<T, S> ret = new DoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+		for( int c = 0; c < numCols; c++ ) {
+			for( int r = 0; r < numRows; r++ ) {
+				ret.data[c][r] = data[c][r];
+			}
+		}
+		ret.dirty();
+		return ret;
+	}
+}
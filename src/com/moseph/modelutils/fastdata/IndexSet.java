@@ -1,8 +1,19 @@
 package com.moseph.modelutils.fastdata;
 
+import java.util.BitSet;
 import java.util.List;
 
 
+/**
+ * A fixed set of Indexed keys, which maps and matrices use to lay out their storage.
+ * 
+ * By default a map over the set stores each key's value at the key's index, so arrays are
+ * getMaxIndex()+1 long. A set can instead be compact, giving each key a slot in 0..size()-1,
+ * which stops sets with large gaps in their indices inflating the storage of every map built on them.
+ * 
+ * The array methods expose this layout so that maps can loop over primitive arrays rather than
+ * the keys. The arrays are shared, and must not be modified.
+ */
 public interface IndexSet<T extends Indexed> extends Iterable<T>
 {
 	public List<T> getList();
@@ -10,4 +21,54 @@ public interface IndexSet<T extends Indexed> extends Iterable<T>
 	public boolean containsKey( T t );
 	public T get( int index );
 	public int size();
+	
+	/**
+	 * @return a new BitSet with the index of each key set, which the caller is free to change
+	 */
+	public default BitSet getMembers()
+	{
+		BitSet members = new BitSet();
+		for( T t : this ) {
+			members.set( t.getIndex() );
+		}
+		return members;
+	}
+	
+	/**
+	 * @return the index of each key, in iteration order
+	 */
+	public default int[] getIndices()
+	{
+		List<T> list = getList();
+		int[] indices = new int[list.size()];
+		for( int i = 0; i < indices.length; i++ ) {
+			indices[i] = list.get( i ).getIndex();
+		}
+		return indices;
+	}
+	
+	/**
+	 * @return the storage slot of each key, in iteration order. The same as getIndices() unless compact
+	 */
+	public default int[] getSlots()
+	{
+		return getIndices();
+	}
+	
+	/**
+	 * @return an array mapping each index to its storage slot (-1 for indices not in the set),
+	 * or null if slots are just the indices
+	 */
+	public default int[] getSlotTable()
+	{
+		return null;
+	}
+	
+	/**
+	 * @return the length of storage arrays for maps over this set
+	 */
+	public default int getStorageSize()
+	{
+		return getMaxIndex() + 1;
+	}
 }
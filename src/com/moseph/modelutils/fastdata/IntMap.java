@@ -27,6 +27,8 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import de.cesr.uranus.core.UranusRandomService;
+
 /**
  * Intended to form a Map-like structure for storing ints, which avoides autoboxing
  * and takes advantage of structure in the key set (consecutive indices!)
@@ -43,13 +45,23 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 	int total;
 
 	public IntMap( Collection<? extends T> indexes )
+	{
+		this( new ArrayIndexSet<T>( indexes ) );
+	}
+	
+	public IntMap( Collection<? extends T> indexes, int initial )
+	{
+		this( new ArrayIndexSet<T>( indexes ), initial );
+	}
+	
+	public IntMap( IndexSet<T> indexes )
 	{
 		super( indexes );
 		data = new int[size()];
 		clear();
 	}
 	
-	public IntMap( Collection<? extends T> indexes, int initial )
+	public IntMap( IndexSet<T> indexes, int initial )
 	{
 		this( indexes );
 		this.initial = initial;
@@ -58,13 +70,18 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 	
 	public int get( T key )
 	{
-		return data[key.getIndex()];
+		return data[pos( key )];
 	}
 	
 	public void put( T key, int value )
 	{
-		data[key.getIndex()] = value;
-		dirty();
+		int i = pos( key );
+		if( incrementalTotal ) {
+			updateTotal( value - data[i] );
+		} else {
+			dirty();
+		}
+		data[i] = value;
 	}
 	
 	public void increment( T key )
@@ -74,8 +91,26 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 	
 	public void add( T key, int amount )
 	{
-		data[key.getIndex()] += amount;
-		dirty();
+		data[pos( key )] += amount;
+		if( incrementalTotal ) {
+			updateTotal( amount );
+		} else {
+			dirty();
+		}
+	}
+	
+	/**
+	 * Applies a change to the total. Integer totals are exact, so no re-summing is needed
+	 * @param delta
+	 */
+	void updateTotal( int delta )
+	{
+		if( ! dirtyTotal ) {
+			total += delta;
+		}
+		dirtyAverage = true;
+		dirtyMaxMin = true;
+		dirtySampler = true;
 	}
 	
 	@Override
@@ -110,10 +145,35 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 		average = (double)getTotal() / size();
 	}
 	
+	@Override
+	void updateMaxMin()
+	{
+		int vMax = Integer.MIN_VALUE;
+		int vMin = Integer.MAX_VALUE;
+		int iMax = -1;
+		int iMin = -1;
+		for( int i = 0; i < slots.length; i++ )
+		{
+			int val = data[slots[i]];
+			if( iMax < 0 || val > vMax )
+			{
+				vMax = val;
+				iMax = i;
+			}
+			if( iMin < 0 || val < vMin )
+			{
+				vMin = val;
+				iMin = i;
+			}
+		}
+		max = iMax < 0 ? null : indexes.get( iMax );
+		min = iMin < 0 ? null : indexes.get( iMin );
+	}
+	
 	public void copyInto( IntMap<T> target )
 	{
 		for( T k : indexes ) {
-			target.put(k, data[k.getIndex()] );
+			target.put(k, data[pos( k )] );
 		}
 	}
 	
@@ -125,7 +185,7 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 	public void addInto( IntMap<T> target )
 	{
 		for( T k : indexes ) {
-			target.add(k, data[k.getIndex()] );
+			target.add(k, data[pos( k )] );
 		}
 	}
 	
@@ -145,6 +205,55 @@ public class IntMap<T extends Indexed> extends AbstractNumberMap<T>
 		return null;
 	}
 	
+	/**
+	 * Draws a key at random, with probability proportional to its count, and decrements it.
+	 * 
+	 * This is O(n) per draw: the decrement changes the map, so an alias table would have to be
+	 * rebuilt each time and a linear scan is used instead. Use a PopulationMap to draw down a
+	 * large population one at a time.
+	 * @param rService
+	 * @param generatorName
+	 * @return the key, or null if the map is empty
+	 */
+	public T consume( UranusRandomService rService, String generatorName )
+	{
+		T val = drawOnce( rService, generatorName );
+		if( val != null ) {
+			add( val, -1 );
+		}
+		return val;
+	}
+	
+	/**
+	 * Draws a key as sample( UranusRandomService, String ) does, but with a linear scan rather
+	 * than building an alias table for a map which is about to change
+	 * @param rService
+	 * @param generatorName
+	 * @return
+	 */
+	T drawOnce( UranusRandomService rService, String generatorName )
+	{
+		long positive = 0;
+		for( int i : slots ) {
+			if( data[i] > 0 ) {
+				positive += data[i];
+			}
+		}
+		if( positive == 0 ) {
+			return null;
+		}
+		long target = Math.min( (long)( rService.nextDouble( generatorName ) * positive ), positive - 1 );
+		long cur = 0;
+		for( T k : indexes )
+		{
+			int v = data[pos( k )];
+			if( v > 0 && ( cur += v ) > target ) {
+				return k;
+			}
+		}
+		return null;
+	}
+	
 	public T consume()
 	{
 		T val = sample();
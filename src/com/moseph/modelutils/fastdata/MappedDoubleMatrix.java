@@ -0,0 +1,207 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+
+/**
+ * A matrix whose values live in a memory mapped file, in the format described in BinaryFormat.
+ * 
+ * Changes are written to the file by the operating system as it sees fit, and straight away by
+ * force(), so the matrix can be checkpointed and later reopened without parsing anything. As
+ * only the pages being used need to be in memory, matrices can be larger than the heap.
+ * 
+ * The file is mapped in windows of up to 2 GiB, each holding as many whole columns as fit, so
+ * a column can hold at most Integer.MAX_VALUE / 8 rows. Wide matrices with short columns
+ * share a few mappings rather than needing one per column, which would run into the operating
+ * system's limit on the number of mappings.
+ * close() (or the garbage collector) unmaps the file; the matrix can't be used after that.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class MappedDoubleMatrix<T extends Indexed, S extends Indexed> extends OffHeapDoubleMatrix<T, S>
+{
+	File file;
+	/**
+	 * The mappings the column buffers are slices of
+	 */
+	MappedByteBuffer[] windows;
+	
+	MappedDoubleMatrix( File file, IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial, MappedByteBuffer[] windows )
+	{
+		super( colIndexes, rowIndexes, initial, columns( windows, colIndexes.getStorageSize(), rowIndexes.getStorageSize() ) );
+		this.file = file;
+		this.windows = windows;
+	}
+	
+	/**
+	 * Creates a new file (replacing any existing one) holding a matrix filled with initial
+	 * @param file
+	 * @param colIndexes
+	 * @param rowIndexes
+	 * @param initial
+	 * @return
+	 * @throws IOException
+	 */
+	public static <T extends Indexed, S extends Indexed> MappedDoubleMatrix<T, S> create( File file, IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial ) throws IOException
+	{
+		ByteBuffer header = BinaryFormat.encodeHeader( colIndexes, rowIndexes, initial );
+		try( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			FileChannel channel = raf.getChannel();
+			channel.truncate( 0 );
+			raf.setLength( header.capacity() + (long)colIndexes.getStorageSize() * rowIndexes.getStorageSize() * 8 );
+			while( header.hasRemaining() ) {
+				channel.write( header, header.position() );
+			}
+			BinaryFormat.Header h = BinaryFormat.readHeader( channel );
+			MappedDoubleMatrix<T, S> m = new MappedDoubleMatrix<T, S>( file, colIndexes, rowIndexes, initial, map( channel, h, MapMode.READ_WRITE ) );
+			m.clear();
+			return m;
+		}
+	}
+	
+	/**
+	 * Opens a matrix previously created in file. The index sets must match the ones it was created with.
+	 * @param file
+	 * @param colIndexes
+	 * @param rowIndexes
+	 * @return
+	 * @throws IOException if the file can't be read, or doesn't match the index sets
+	 */
+	public static <T extends Indexed, S extends Indexed> MappedDoubleMatrix<T, S> open( File file, IndexSet<T> colIndexes, IndexSet<S> rowIndexes ) throws IOException
+	{
+		try( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			FileChannel channel = raf.getChannel();
+			BinaryFormat.Header h = BinaryFormat.readHeader( channel );
+			if( h.kind != BinaryFormat.MATRIX ) {
+				throw new IOException( file + " doesn't hold a matrix" );
+			}
+			h.check( colIndexes, rowIndexes );
+			return new MappedDoubleMatrix<T, S>( file, colIndexes, rowIndexes, h.initial, map( channel, h, MapMode.READ_WRITE ) );
+		}
+	}
+	
+	static MappedByteBuffer[] map( FileChannel channel, BinaryFormat.Header h, MapMode mode ) throws IOException
+	{
+		if( h.numRows > DirectBuffers.MAX_DOUBLES ) {
+			throw new IOException( "Can't map columns of " + h.numRows + " rows (max " + DirectBuffers.MAX_DOUBLES + ")" );
+		}
+		int perWindow = columnsPerWindow( h.numRows );
+		MappedByteBuffer[] windows = new MappedByteBuffer[( h.numCols + perWindow - 1 ) / perWindow];
+		for( int w = 0; w < windows.length; w++ )
+		{
+			int first = w * perWindow;
+			int count = Math.min( perWindow, h.numCols - first );
+			windows[w] = channel.map( mode, h.columnOffset( first ), (long)count * h.numRows * 8 );
+		}
+		return windows;
+	}
+	
+	/**
+	 * @return the number of whole columns which fit in a single mapping
+	 */
+	static int columnsPerWindow( int numRows )
+	{
+		return numRows == 0 ? Integer.MAX_VALUE : Math.max( 1, Integer.MAX_VALUE / ( numRows * 8 ) );
+	}
+	
+	/**
+	 * Slices the windows into a buffer for each column
+	 */
+	static ByteBuffer[] columns( MappedByteBuffer[] windows, int numCols, int numRows )
+	{
+		int perWindow = columnsPerWindow( numRows );
+		ByteBuffer[] columns = new ByteBuffer[numCols];
+		for( int c = 0; c < numCols; c++ )
+		{
+			ByteBuffer b = windows[c / perWindow].duplicate();
+			int start = ( c % perWindow ) * numRows * 8;
+			b.limit( start + numRows * 8 ).position( start );
+			columns[c] = b.slice().order( ByteOrder.LITTLE_ENDIAN );
+		}
+		return columns;
+	}
+	
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Writes any changes out to the file
+	 */
+	public void force()
+	{
+		checkOpen();
+		for( MappedByteBuffer w : windows ) {
+			w.force();
+		}
+	}
+	
+	/**
+	 * Writes changes to the file and unmaps it
+	 */
+	@Override
+	public void close()
+	{
+		if( ! isClosed() ) {
+			force();
+		}
+		super.close();
+	}
+	
+	/**
+	 * Unmaps the windows; the column buffers are just slices of them
+	 */
+	@Override
+	void free( ByteBuffer[] columns )
+	{
+		MappedByteBuffer[] w = windows;
+		windows = null;
+		for( MappedByteBuffer window : w ) {
+			DirectBuffers.free( window );
+		}
+	}
+	
+	/**
+	 * Creates a new, in memory, off-heap matrix with the same structure (but no data)
+	 * @return
+	 */
+	@Override
+	public OffHeapDoubleMatrix<T, S> duplicate()
+	{
+		return new OffHeapDoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+	}
+}
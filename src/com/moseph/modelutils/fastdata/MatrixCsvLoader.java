@@ -0,0 +1,190 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import com.csvreader.CsvReader;
+import com.moseph.modelutils.serialisation.CsvTokenizer;
+
+/**
+ * Loads CSV records into a DoubleMatrix. The first field of each record names the row, and the
+ * headers name the columns. Header positions are resolved to storage columns once per file,
+ * and each row name once per record, so the per cell work is just parsing the value and
+ * writing it into the matrix arrays. Empty cells are left alone. Records can come from a
+ * CsvReader, or from a CsvTokenizer which parses values without making Strings.
+ * 
+ * Aggregates are invalidated once, when the load finishes.
+ */
+public class MatrixCsvLoader<T extends Indexed & Named, S extends Indexed & Named>
+{
+	final DoubleMatrix<T, S> target;
+	final NamedIndexSet<T> columns;
+	final NamedIndexSet<S> rows;
+	/**
+	 * Storage column for each header position, -1 for ones to skip
+	 */
+	int[] binding = new int[0];
+	final BitSet seen = new BitSet();
+	
+	public MatrixCsvLoader( DoubleMatrix<T, S> target, NamedIndexSet<T> columns, NamedIndexSet<S> rows )
+	{
+		this.target = target;
+		this.columns = columns;
+		this.rows = rows;
+	}
+	
+	/**
+	 * Resolves the headers to matrix columns. The first header is the row name column and is
+	 * never bound; unknown columns are ignored
+	 * @param headers
+	 */
+	public void bind( String[] headers )
+	{
+		binding = new int[headers.length];
+		if( headers.length > 0 ) {
+			binding[0] = -1;
+		}
+		for( int i = 1; i < headers.length; i++ )
+		{
+			T col = columns.forName( headers[i] );
+			binding[i] = col == null ? -1 : target.colPos( col );
+		}
+		if( target.cow != null ) {
+			target.cow.beforeWriteAll();
+		}
+	}
+	
+	/**
+	 * Reads the headers and all the records from the reader, and then calls finish()
+	 * @param reader a reader which has already read its headers
+	 * @return the number of records with known rows
+	 * @throws IOException
+	 */
+	public int load( CsvReader reader ) throws IOException
+	{
+		bind( reader.getHeaders() );
+		int loaded = 0;
+		while( reader.readRecord() ) {
+			if( readRecord( reader ) != null ) {
+				loaded++;
+			}
+		}
+		finish();
+		return loaded;
+	}
+	
+	/**
+	 * As load( CsvReader )
+	 */
+	public int load( CsvTokenizer reader ) throws IOException
+	{
+		bind( reader.getHeaders() );
+		int loaded = 0;
+		while( reader.readRecord() ) {
+			if( readRecord( reader ) != null ) {
+				loaded++;
+			}
+		}
+		finish();
+		return loaded;
+	}
+	
+	/**
+	 * Copies the reader's current record into the matrix. bind() must have been called first.
+	 * @param reader
+	 * @return the row, or null if it wasn't known (in which case nothing is written)
+	 * @throws IOException
+	 */
+	public S readRecord( CsvReader reader ) throws IOException
+	{
+		S row = rows.forName( reader.get( 0 ) );
+		if( row == null ) {
+			return null;
+		}
+		int r = target.rowPos( row );
+		seen.set( r );
+		double[][] data = target.data;
+		int n = Math.min( reader.getColumnCount(), binding.length );
+		for( int i = 1; i < n; i++ )
+		{
+			int c = binding[i];
+			if( c < 0 ) {
+				continue;
+			}
+			String value = reader.get( i );
+			if( value.length() > 0 ) {
+				data[c][r] = Double.parseDouble( value );
+			}
+		}
+		return row;
+	}
+	
+	/**
+	 * As readRecord( CsvReader ), parsing values straight from the tokenizer's buffer
+	 */
+	public S readRecord( CsvTokenizer reader )
+	{
+		S row = rows.forName( reader.get( 0 ) );
+		if( row == null ) {
+			return null;
+		}
+		int r = target.rowPos( row );
+		seen.set( r );
+		double[][] data = target.data;
+		int n = Math.min( reader.getColumnCount(), binding.length );
+		for( int i = 1; i < n; i++ )
+		{
+			int c = binding[i];
+			if( c >= 0 && ! reader.isEmpty( i ) ) {
+				data[c][r] = reader.getDouble( i );
+			}
+		}
+		return row;
+	}
+	
+	/**
+	 * Marks the matrix as changed. Needs calling once after a series of readRecord() calls
+	 */
+	public void finish()
+	{
+		target.dirty();
+	}
+	
+	/**
+	 * @return rows which haven't appeared in any record read so far
+	 */
+	public List<S> getMissingRows()
+	{
+		List<S> missing = new ArrayList<S>();
+		for( S row : rows ) {
+			if( ! seen.get( target.rowPos( row ) ) ) {
+				missing.add( row );
+			}
+		}
+		return missing;
+	}
+}
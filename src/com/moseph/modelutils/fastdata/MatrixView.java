@@ -0,0 +1,136 @@
+package com.moseph.modelutils.fastdata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.cesr.uranus.core.UranusRandomService;
+
+/**
+ * Base for live views onto a row or column of a matrix. Nothing is copied: reads and writes go
+ * straight through to the matrix, and totals, averages and max/min are worked out from the
+ * current contents whenever they're asked for.
+ * 
+ * Views can be read only, in which case writes throw UnsupportedOperationException.
+ *
+ * @param <K> the keys along the view
+ */
+abstract class MatrixView<K extends Indexed> extends AbstractNumberMap<K>
+{
+	boolean writable;
+	
+	MatrixView( IndexSet<K> indexes, boolean writable )
+	{
+		super( indexes );
+		this.writable = writable;
+	}
+	
+	/**
+	 * @param pos storage position along the view
+	 */
+	abstract double get( int pos );
+	abstract void put( int pos, double value );
+	abstract void add( int pos, double amount );
+	abstract double initial();
+	
+	public boolean isWritable()
+	{
+		return writable;
+	}
+	
+	void checkWritable()
+	{
+		if( ! writable ) {
+			throw new UnsupportedOperationException( "Can't modify a read only view" );
+		}
+	}
+	
+	@Override
+	public double getDouble( K key )
+	{
+		return get( pos( key ) );
+	}
+	
+	@Override
+	public void putDouble( K key, double value )
+	{
+		checkWritable();
+		put( pos( key ), value );
+	}
+	
+	@Override
+	public void addDouble( K key, double value )
+	{
+		checkWritable();
+		add( pos( key ), value );
+	}
+	
+	/**
+	 * Sets every cell in the view back to the matrix's initial value
+	 */
+	@Override
+	public void clear()
+	{
+		checkWritable();
+		double initial = initial();
+		for( int i : slots ) {
+			put( i, initial );
+		}
+	}
+	
+	@Override
+	public double getDoubleTotal()
+	{
+		double total = 0;
+		for( int i : slots ) {
+			total += get( i );
+		}
+		return total;
+	}
+	
+	@Override
+	void updateTotals() {}
+	
+	@Override
+	void updateAverage()
+	{
+		average = getDoubleTotal() / size();
+	}
+	
+	@Override
+	public double getAverage()
+	{
+		dirty();
+		return super.getAverage();
+	}
+	
+	@Override
+	public K getMax()
+	{
+		dirty();
+		return super.getMax();
+	}
+	
+	@Override
+	public K getMin()
+	{
+		dirty();
+		return super.getMin();
+	}
+	
+	@Override
+	public K sample( boolean allowNull, UranusRandomService rService, String generatorName )
+	{
+		dirty();
+		return super.sample( allowNull, rService, generatorName );
+	}
+	
+	@Override
+	public Map<K, Double> toMap()
+	{
+		Map<K, Double> map = new LinkedHashMap<K, Double>();
+		for( K k : indexes ) {
+			map.put( k, getDouble( k ) );
+		}
+		return map;
+	}
+}
@@ -25,6 +25,7 @@ package com.moseph.modelutils.fastdata;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -42,7 +43,16 @@ public class NamedArrayIndexSet<T extends Indexed & Named> extends ArrayIndexSet
 	
 	public NamedArrayIndexSet( Collection<? extends T> values )
 	{
-		super( values );
+		this( values, false );
+	}
+	
+	/**
+	 * @param values
+	 * @param compact store values in one slot per key rather than at each key's index (see ArrayIndexSet)
+	 */
+	public NamedArrayIndexSet( Collection<? extends T> values, boolean compact )
+	{
+		super( values, compact );
 		for( T t : list ) {
 			byName.put( t.getName(), t );
 		}
@@ -53,6 +63,15 @@ public class NamedArrayIndexSet<T extends Indexed & Named> extends ArrayIndexSet
 		this( Arrays.asList(values));
 	}
 
+	@Override
+	public NamedArrayIndexSet<T> union( IndexSet<T> other ) { return (NamedArrayIndexSet<T>)super.union( other ); }
+	@Override
+	public NamedArrayIndexSet<T> intersection( IndexSet<T> other ) { return (NamedArrayIndexSet<T>)super.intersection( other ); }
+	@Override
+	public NamedArrayIndexSet<T> difference( IndexSet<T> other ) { return (NamedArrayIndexSet<T>)super.difference( other ); }
+	@Override
+	ArrayIndexSet<T> create( List<T> values ) { return new NamedArrayIndexSet<T>( values, isCompact() ); }
+
 	@Override
 	public T forName( String name ) { return byName.get( name ); }
 	@Override
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.*;
 
 import com.csvreader.*;
+import com.moseph.modelutils.serialisation.CsvStreamWriter;
 import com.moseph.modelutils.serialisation.DoubleStringMapping;
 
 
@@ -38,27 +39,7 @@ public class NamedMatrix<T extends Indexed & Named, S extends Indexed & Named> e
 	
 	public void readCSV( CsvReader values ) throws NumberFormatException, IOException
 	{
-		while( values.readRecord() )
-		{
-			String row = values.get( 0 );
-			if( ! rowIndexes.contains( row ))
-			{
-				//log.error( "Asked for unknown row: " + row );
-				continue;
-			}
-			String[] headers = values.getHeaders();
-			for( int i = 1; i < headers.length; i++ )
-			{	
-				String col = headers[i];
-				if( ! colIndexes.contains( col ) )
-				{
-					//log.error( "Asked for unknown column: " + col );
-					continue;
-				}
-				if( values.get(col).length() > 0)
-					put( col, row, Double.parseDouble( values.get( col )));
-			}
-		}
+		new MatrixCsvLoader<T, S>( this, colIndexes, rowIndexes ).load( values );
 	}
 	
 	public List<DoubleStringMapping> toStringMappings()
@@ -101,4 +82,40 @@ public class NamedMatrix<T extends Indexed & Named, S extends Indexed & Named> e
 		output[colIndexes.size()+1] = getTotal() + "";
 		writer.writeRecord( output );
 	}
+	
+	/**
+	 * As write( CsvWriter ), but numbers are formatted straight into the writer's buffer,
+	 * and the totals all come from one aggregation pass
+	 */
+	public void write( CsvStreamWriter writer ) throws IOException
+	{
+		double total = getTotal();
+		int n = colIndexes.size();
+		int[] cols = new int[n];
+		writer.write( "" );
+		for( int i = 0; i < n; i++ )
+		{
+			T col = colIndexes.get( i );
+			cols[i] = colPos( col );
+			writer.write( col.getName() );
+		}
+		writer.write( "Total" );
+		writer.endRecord();
+		for( S row : rowIndexes )
+		{
+			int r = rowPos( row );
+			writer.write( row.getName() );
+			for( int c : cols ) {
+				writer.write( data[c][r] );
+			}
+			writer.write( rowTotals.get( row ) );
+			writer.endRecord();
+		}
+		writer.write( "Total" );
+		for( int i = 0; i < n; i++ ) {
+			writer.write( colTotals.get( colIndexes.get( i ) ) );
+		}
+		writer.write( total );
+		writer.endRecord();
+	}
 }
@@ -0,0 +1,213 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A DoubleMap whose values live in a direct buffer outside the Java heap, so that very large
+ * maps don't end up as huge arrays in the old generation.
+ * 
+ * The memory is released by close(), after which using the map throws IllegalStateException.
+ * If it is never closed, the memory is freed when the map is garbage collected.
+ *
+ * @param <T>
+ */
+public class OffHeapDoubleMap<T extends Indexed> extends AbstractNumberMap<T> implements Closeable
+{
+	ByteBuffer buffer;
+	DoubleBuffer data;
+	double initial = 0;
+	double total;
+
+	public OffHeapDoubleMap( Collection<? extends T> ind )
+	{
+		this( ind, 0d );
+	}
+	
+	public OffHeapDoubleMap( Collection<? extends T> indexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( indexes ), initial );
+	}
+	
+	public OffHeapDoubleMap( IndexSet<T> indexes)
+	{
+		this( indexes, 0 );
+	}
+	
+	public OffHeapDoubleMap( IndexSet<T> indexes, double initial )
+	{
+		super( indexes );
+		this.initial = initial;
+		buffer = DirectBuffers.allocate( indexes.getStorageSize() );
+		data = buffer.asDoubleBuffer();
+		clear();
+	}
+	
+	public double get( T key )
+	{
+		checkOpen();
+		return data.get( pos( key ) );
+	}
+	
+	public void put( T key, double value )
+	{
+		checkOpen();
+		data.put( pos( key ), value );
+		dirty();
+	}
+	
+	public void increment( T key )
+	{
+		add( key, 1 );
+	}
+	
+	public void add( T key, double amount )
+	{
+		checkOpen();
+		int i = pos( key );
+		data.put( i, data.get( i ) + amount );
+		dirty();
+	}
+	
+	@Override
+	public void clear()
+	{
+		checkOpen();
+		DirectBuffers.fill( data, initial );
+		total = initial * size();
+		dirty();
+	}
+	
+	public double getTotal()
+	{
+		if( dirtyTotal ) {
+			updateTotals();
+		}
+		return total;
+	}
+	
+	@Override
+	void updateTotals()
+	{
+		checkOpen();
+		total = 0;
+		for( int i = 0; i < data.capacity(); i++ ) {
+			total += data.get( i );
+		}
+		dirtyTotal = false;
+	}
+	
+	@Override
+	void updateAverage()
+	{
+		average = getTotal() / size();
+	}
+	
+	@Override
+	public Map<T, Double> toMap()
+	{
+		Map<T, Double> map = new LinkedHashMap<T, Double>();
+		for( T k : getKeys() ) {
+			map.put( k, get(k) );
+		}
+		return map;
+	}
+	
+	@Override
+	public void addDouble( T key, double value ) { add( key, value ); }
+	@Override
+	public double getDouble( T key ) { return get( key ); }
+	@Override
+	public void putDouble( T key, double value ) { put( key, value ); }
+	@Override
+	public double getDoubleTotal() { return getTotal(); }
+	
+	/**
+	 * Creates an OffHeapDoubleMap with the same structure, but no data in
+	 * @return
+	 */
+	public OffHeapDoubleMap<T> duplicate() { return new OffHeapDoubleMap<T>( indexes, initial ); }
+	
+	/**
+	 * Copies the values into an ordinary, on-heap, DoubleMap
+	 * @return
+	 */
+	public DoubleMap<T> toDoubleMap()
+	{
+		checkOpen();
+		DoubleMap<T> ret = new DoubleMap<T>( indexes, initial );
+		data.duplicate().get( ret.data );
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Frees the off-heap memory. The map can't be used afterwards.
+	 */
+	@Override
+	public void close()
+	{
+		if( buffer == null ) {
+			return;
+		}
+		ByteBuffer b = buffer;
+		buffer = null;
+		data = null;
+		DirectBuffers.free( b );
+	}
+	
+	public boolean isClosed()
+	{
+		return buffer == null;
+	}
+	
+	/**
+	 * @throws IllegalStateException if the map has been closed
+	 */
+	void checkOpen()
+	{
+		if( buffer == null ) {
+			throw new IllegalStateException( "OffHeapDoubleMap has been closed" );
+		}
+	}
+	
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("OffHeapDoubleMap: ");
+		int count = 0;
+		for (T k : getKeys()) {
+			count++;
+			buffer.append(k + " = " + get(k)
+					+ (count <= this.maxIndex ? ", " : ""));
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,201 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Collection;
+
+
+/**
+ * A matrix of doubles stored outside the Java heap, in one direct buffer per column.
+ * Offers the same API as DoubleMatrix, but keeps large matrices out of the old generation.
+ * 
+ * The memory is released by close(), after which using the matrix throws IllegalStateException.
+ * If it is never closed, the memory is freed when the matrix is garbage collected.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class OffHeapDoubleMatrix<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S> implements Closeable
+{
+	ByteBuffer[] buffers;
+	DoubleBuffer[] columns;
+	
+	public OffHeapDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public OffHeapDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( colIndexes ), new ArrayIndexSet<S>( rowIndexes ), initial );
+	}
+	
+	public OffHeapDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public OffHeapDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial )
+	{
+		super( colIndexes, rowIndexes, initial );
+		ByteBuffer[] b = new ByteBuffer[numCols];
+		for( int i = 0; i < numCols; i++ ) {
+			b[i] = DirectBuffers.allocate( numRows );
+		}
+		setBuffers( b );
+		clear();
+	}
+	
+	/**
+	 * Wraps existing buffers (one per column, each holding numRows doubles) without clearing them
+	 * @param colIndexes
+	 * @param rowIndexes
+	 * @param initial
+	 * @param buffers
+	 */
+	OffHeapDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial, ByteBuffer[] buffers )
+	{
+		super( colIndexes, rowIndexes, initial );
+		setBuffers( buffers );
+		dirty();
+	}
+	
+	void setBuffers( ByteBuffer[] b )
+	{
+		if( b.length != numCols ) {
+			throw new IllegalArgumentException( "Expected " + numCols + " column buffers, got " + b.length );
+		}
+		buffers = b;
+		columns = new DoubleBuffer[numCols];
+		for( int i = 0; i < numCols; i++ ) {
+			columns[i] = b[i].asDoubleBuffer();
+		}
+	}
+	
+	@Override
+	public double get( int col, int row )
+	{
+		checkOpen();
+		return columns[col].get( row );
+	}
+	
+	@Override
+	public void put( int col, int row, double value )
+	{
+		checkOpen();
+		DoubleBuffer c = columns[col];
+		double old = c.get( row );
+		c.put( row, value );
+		changed( col, row, value - old );
+	}
+	
+	@Override
+	public void add( int col, int row, double amount )
+	{
+		checkOpen();
+		DoubleBuffer c = columns[col];
+		c.put( row, c.get( row ) + amount );
+		changed( col, row, amount );
+	}
+	
+	@Override
+	public void clear()
+	{
+		checkOpen();
+		for( DoubleBuffer c : columns ) {
+			DirectBuffers.fill( c, initial );
+		}
+		total = initial * size();
+		dirty();
+	}
+	
+	/**
+	 * Creates a new off-heap matrix with the same structure (but no data)
+	 * @return
+	 */
+	@Override
+	public OffHeapDoubleMatrix<T, S> duplicate()
+	{
+		return new OffHeapDoubleMatrix<T, S>( colIndexes, rowIndexes );
+	}
+	
+	/**
+	 * Copies the values into an ordinary, on-heap, DoubleMatrix
+	 * @return
+	 */
+	public DoubleMatrix<T, S> toDoubleMatrix()
+	{
+		checkOpen();
+		DoubleMatrix<T, S> ret = new DoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+		for( int i = 0; i < numCols; i++ ) {
+			columns[i].duplicate().get( ret.data[i] );
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Frees the off-heap memory. The matrix can't be used afterwards.
+	 */
+	@Override
+	public void close()
+	{
+		if( buffers == null ) {
+			return;
+		}
+		ByteBuffer[] b = buffers;
+		buffers = null;
+		columns = null;
+		free( b );
+	}
+	
+	/**
+	 * Releases the memory behind the column buffers
+	 * @param b
+	 */
+	void free( ByteBuffer[] b )
+	{
+		for( ByteBuffer buffer : b ) {
+			DirectBuffers.free( buffer );
+		}
+	}
+	
+	public boolean isClosed()
+	{
+		return buffers == null;
+	}
+	
+	/**
+	 * @throws IllegalStateException if the matrix has been closed
+	 */
+	void checkOpen()
+	{
+		if( buffers == null ) {
+			throw new IllegalStateException( getClass().getSimpleName() + " has been closed" );
+		}
+	}
+}
@@ -0,0 +1,194 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import de.cesr.uranus.core.UranusRandomService;
+
+/**
+ * An IntMap of population counts which also keeps its counts in a binary indexed (Fenwick)
+ * tree, so that add, put, sample and consume are all O(log n) and the total is always exact.
+ * Drawing a whole population down one individual at a time is then O(n log n) rather than O(n^2).
+ * 
+ * Counts must not go negative for sampling to make sense. Only indices belonging to keys hold
+ * a population; any gaps in the index range are always zero.
+ *
+ * @param <T>
+ */
+public class PopulationMap<T extends Indexed> extends IntMap<T>
+{
+	//1-based Fenwick tree over data
+	int[] tree;
+	//Key for each index, for turning a position in the tree back into a key
+	Object[] byIndex;
+
+	public PopulationMap( Collection<? extends T> indexes )
+	{
+		super( indexes );
+	}
+	
+	public PopulationMap( Collection<? extends T> indexes, int initial )
+	{
+		super( indexes, initial );
+	}
+	
+	public PopulationMap( IndexSet<T> indexes )
+	{
+		super( indexes );
+	}
+	
+	public PopulationMap( IndexSet<T> indexes, int initial )
+	{
+		super( indexes, initial );
+	}
+	
+	@Override
+	public void put( T key, int value )
+	{
+		int i = pos( key );
+		update( i, value - data[i] );
+		data[i] = value;
+	}
+	
+	@Override
+	public void add( T key, int amount )
+	{
+		data[pos( key )] += amount;
+		update( pos( key ), amount );
+	}
+	
+	void update( int index, int delta )
+	{
+		for( int i = index + 1; i < tree.length; i += i & -i ) {
+			tree[i] += delta;
+		}
+		total += delta;
+		dirtyAverage = true;
+		dirtyMaxMin = true;
+		dirtySampler = true;
+	}
+	
+	@Override
+	public void clear()
+	{
+		if( tree == null )
+		{
+			tree = new int[data.length + 1];
+			byIndex = new Object[data.length];
+			for( T k : indexes ) {
+				byIndex[pos( k )] = k;
+			}
+		}
+		Arrays.fill( data, 0 );
+		for( int i : slots ) {
+			data[i] = initial;
+		}
+		//Linear time construction
+		Arrays.fill( tree, 0 );
+		total = 0;
+		for( int i = 1; i < tree.length; i++ )
+		{
+			tree[i] += data[i-1];
+			total += data[i-1];
+			int parent = i + ( i & -i );
+			if( parent < tree.length ) {
+				tree[parent] += tree[i];
+			}
+		}
+		dirtyTotal = false;
+		dirtyAverage = true;
+		dirtyMaxMin = true;
+		dirtySampler = true;
+	}
+	
+	@Override
+	public int getTotal()
+	{
+		return total;
+	}
+	
+	/**
+	 * Draws a key with probability proportional to its count, in O(log n)
+	 * @return the key, or null if the population is empty
+	 */
+	@Override
+	public T sample( UranusRandomService rService, String generatorName )
+	{
+		if( total <= 0 ) {
+			return null;
+		}
+		int target = (int)( rService.nextDouble( generatorName ) * total );
+		return keyForRank( Math.min( target, total - 1 ) );
+	}
+	
+	/**
+	 * The Fenwick tree makes a single draw O(log n) already
+	 */
+	@Override
+	T drawOnce( UranusRandomService rService, String generatorName )
+	{
+		return sample( rService, generatorName );
+	}
+	
+	/**
+	 * Returns the key holding the given member of the population, counting from 0 in index order
+	 * @param rank
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public T keyForRank( int rank )
+	{
+		int pos = 0;
+		int remaining = rank;
+		for( int step = Integer.highestOneBit( data.length ); step > 0; step >>= 1 )
+		{
+			int next = pos + step;
+			if( next < tree.length && tree[next] <= remaining )
+			{
+				pos = next;
+				remaining -= tree[next];
+			}
+		}
+		return pos < byIndex.length ? (T)byIndex[pos] : null;
+	}
+	
+	/**
+	 * Total count of all indices up to and including that of the given key
+	 * @param key
+	 * @return
+	 */
+	public int getCumulativeCount( T key )
+	{
+		int sum = 0;
+		for( int i = pos( key ) + 1; i > 0; i -= i & -i ) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+	
+	public String toString() {
+		return "Population" + super.toString();
+	}
+}
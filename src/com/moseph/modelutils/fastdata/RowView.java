@@ -0,0 +1,43 @@
+package com.moseph.modelutils.fastdata;
+
+/**
+ * Live view of one row of a matrix, as a map from column keys to values. Get one from
+ * AbstractDoubleMatrix.getRowView(), and move it between rows with setRow() to
+ * avoid creating a new view for each.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class RowView<T extends Indexed, S extends Indexed> extends MatrixView<T>
+{
+	AbstractDoubleMatrix<T, S> matrix;
+	S row;
+	int rowPos;
+	
+	RowView( AbstractDoubleMatrix<T, S> matrix, S row, boolean writable )
+	{
+		super( matrix.colIndexes, writable );
+		this.matrix = matrix;
+		setRow( row );
+	}
+	
+	public void setRow( S row )
+	{
+		this.row = row;
+		rowPos = matrix.rowPos( row );
+	}
+	
+	public S getRow()
+	{
+		return row;
+	}
+	
+	@Override
+	double get( int pos ) { return matrix.get( pos, rowPos ); }
+	@Override
+	void put( int pos, double value ) { matrix.put( pos, rowPos, value ); }
+	@Override
+	void add( int pos, double amount ) { matrix.add( pos, rowPos, amount ); }
+	@Override
+	double initial() { return matrix.initial; }
+}
@@ -0,0 +1,336 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A NumberMap for keys whose indices are spread thinly over a large range. DoubleMap always
+ * allocates an array covering every index up to the largest, which is wasteful when a few
+ * thousand keys have ids in the millions.
+ * 
+ * Values are held in an open-addressed int to double hash table, which only holds keys that
+ * have been written to; other keys read as the initial value. Once the number of stored values
+ * passes a fraction (the fill ratio) of the index range, the map switches to an ordinary dense
+ * array, since that is then both smaller and faster.
+ * 
+ * Totals and averages are defined as for DoubleMap, i.e. over the whole index range with
+ * unwritten indices counting as the initial value.
+ *
+ * @param <T>
+ */
+public class SparseDoubleMap<T extends Indexed> extends AbstractNumberMap<T>
+{
+	public static final double DEFAULT_FILL_RATIO = 0.25;
+	static final int EMPTY = -1;
+	static final int MIN_CAPACITY = 16;
+	
+	double initial = 0;
+	double total;
+	double fillRatio = DEFAULT_FILL_RATIO;
+	//Sparse storage: keys holds the index, or EMPTY
+	int[] keys;
+	double[] values;
+	int count;
+	//Dense storage, once switched
+	double[] dense;
+
+	public SparseDoubleMap( Collection<? extends T> ind )
+	{
+		this( ind, 0d );
+	}
+	
+	public SparseDoubleMap( Collection<? extends T> indexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( indexes ), initial );
+	}
+	
+	public SparseDoubleMap( IndexSet<T> indexes )
+	{
+		this( indexes, 0 );
+	}
+	
+	public SparseDoubleMap( IndexSet<T> indexes, double initial )
+	{
+		this( indexes, initial, DEFAULT_FILL_RATIO );
+	}
+	
+	/**
+	 * @param indexes
+	 * @param initial value for keys which haven't been written
+	 * @param fillRatio fraction of the index range which can be stored sparsely before
+	 * switching to a dense array
+	 */
+	public SparseDoubleMap( IndexSet<T> indexes, double initial, double fillRatio )
+	{
+		super( indexes );
+		this.initial = initial;
+		this.fillRatio = fillRatio;
+		allocateSparse( MIN_CAPACITY );
+		clear();
+	}
+	
+	public double get( T key )
+	{
+		int i = pos( key );
+		if( dense != null ) {
+			return dense[i];
+		}
+		int slot = find( i );
+		return keys[slot] == EMPTY ? initial : values[slot];
+	}
+	
+	public void put( T key, double value )
+	{
+		int i = pos( key );
+		if( dense != null ) {
+			dense[i] = value;
+		} else {
+			int slot = insert( i );
+			values[slot] = value;
+		}
+		dirty();
+	}
+	
+	public void increment( T key )
+	{
+		add( key, 1 );
+	}
+	
+	public void add( T key, double amount )
+	{
+		int i = pos( key );
+		if( dense != null ) {
+			dense[i] += amount;
+		} else {
+			int slot = insert( i );
+			values[slot] += amount;
+		}
+		dirty();
+	}
+	
+	/**
+	 * Clears the values, but keeps the current (sparse or dense) layout
+	 */
+	@Override
+	public void clear()
+	{
+		if( dense != null ) {
+			Arrays.fill( dense, initial );
+		} else {
+			Arrays.fill( keys, EMPTY );
+			count = 0;
+		}
+		total = initial * size();
+		dirty();
+	}
+	
+	public double getTotal()
+	{
+		if( dirtyTotal ) {
+			updateTotals();
+		}
+		return total;
+	}
+	
+	@Override
+	void updateTotals()
+	{
+		total = 0;
+		if( dense != null )
+		{
+			for( double v : dense ) {
+				total += v;
+			}
+		}
+		else
+		{
+			for( int s = 0; s < keys.length; s++ ) {
+				if( keys[s] != EMPTY ) {
+					total += values[s];
+				}
+			}
+			total += initial * ( size() - count );
+		}
+		dirtyTotal = false;
+	}
+	
+	@Override
+	void updateAverage()
+	{
+		average = getTotal() / size();
+	}
+	
+	/**
+	 * @return true if the map has switched to dense storage
+	 */
+	public boolean isDense()
+	{
+		return dense != null;
+	}
+	
+	/**
+	 * @return the number of values held in sparse storage (or the full range once dense)
+	 */
+	public int getStoredCount()
+	{
+		return dense != null ? dense.length : count;
+	}
+	
+	/*
+	 * Hash table
+	 */
+	
+	void allocateSparse( int capacity )
+	{
+		keys = new int[capacity];
+		values = new double[capacity];
+		Arrays.fill( keys, EMPTY );
+		count = 0;
+	}
+	
+	/**
+	 * Returns the slot holding index, or the empty slot where it would go
+	 */
+	int find( int index )
+	{
+		int mask = keys.length - 1;
+		int h = index * 0x9E3779B9;
+		int slot = ( h ^ ( h >>> 16 ) ) & mask;
+		while( keys[slot] != EMPTY && keys[slot] != index ) {
+			slot = ( slot + 1 ) & mask;
+		}
+		return slot;
+	}
+	
+	/**
+	 * Returns the slot for index, adding it with the initial value if necessary. May switch
+	 * to dense storage, in which case the returned slot refers to the dense array, which
+	 * values then points at.
+	 */
+	int insert( int index )
+	{
+		int slot = find( index );
+		if( keys[slot] != EMPTY ) {
+			return slot;
+		}
+		if( count + 1 > fillRatio * size() )
+		{
+			switchToDense();
+			return index;
+		}
+		if( 2 * ( count + 1 ) > keys.length )
+		{
+			grow();
+			slot = find( index );
+		}
+		keys[slot] = index;
+		values[slot] = initial;
+		count++;
+		return slot;
+	}
+	
+	void grow()
+	{
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		allocateSparse( oldKeys.length * 2 );
+		for( int s = 0; s < oldKeys.length; s++ )
+		{
+			if( oldKeys[s] != EMPTY )
+			{
+				int slot = find( oldKeys[s] );
+				keys[slot] = oldKeys[s];
+				values[slot] = oldValues[s];
+				count++;
+			}
+		}
+	}
+	
+	void switchToDense()
+	{
+		dense = new double[size()];
+		Arrays.fill( dense, initial );
+		for( int s = 0; s < keys.length; s++ ) {
+			if( keys[s] != EMPTY ) {
+				dense[keys[s]] = values[s];
+			}
+		}
+		keys = null;
+		values = dense;
+		count = 0;
+	}
+	
+	@Override
+	public Map<T, Double> toMap()
+	{
+		Map<T, Double> map = new LinkedHashMap<T, Double>();
+		for( T k : getKeys() ) {
+			map.put( k, get(k) );
+		}
+		return map;
+	}
+	
+	@Override
+	public void addDouble( T key, double value ) { add( key, value ); }
+	@Override
+	public double getDouble( T key ) { return get( key ); }
+	@Override
+	public void putDouble( T key, double value ) { put( key, value ); }
+	@Override
+	public double getDoubleTotal() { return getTotal(); }
+	
+	/**
+	 * Creates a SparseDoubleMap with the same structure, but no data in
+	 * @return
+	 */
+	public SparseDoubleMap<T> duplicate() { return new SparseDoubleMap<T>( indexes, initial, fillRatio ); }
+	
+	/**
+	 * Copies the values into an ordinary DoubleMap
+	 * @return
+	 */
+	public DoubleMap<T> toDoubleMap()
+	{
+		DoubleMap<T> ret = new DoubleMap<T>( indexes, initial );
+		copyInto( ret );
+		return ret;
+	}
+	
+	public String toString() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("SparseDoubleMap: ");
+		int count = 0;
+		for (T k : getKeys()) {
+			count++;
+			buffer.append(k + " = " + get(k)
+					+ (count <= this.maxIndex ? ", " : ""));
+		}
+		return buffer.toString();
+	}
+}
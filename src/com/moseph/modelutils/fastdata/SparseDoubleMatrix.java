@@ -0,0 +1,335 @@
+ /**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.fastdata;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * A matrix for data which is mostly equal to its initial value (usually zero). Only the other
+ * cells are stored, in compressed sparse column form: each column keeps a sorted array of
+ * row positions and a matching array of values. Reading a cell is a binary search of its column.
+ * 
+ * Writing the initial value to a cell removes it, so the matrix stays sparse. Totals, weighted
+ * totals and max/min cost O(rows + columns + stored cells) rather than O(rows * columns), as does
+ * forEachStored(). Not a good choice for matrices where most cells get written.
+ *
+ * @param <T> column keys
+ * @param <S> row keys
+ */
+public class SparseDoubleMatrix<T extends Indexed, S extends Indexed> extends AbstractDoubleMatrix<T, S>
+{
+	static final int[] NO_ROWS = new int[0];
+	static final double[] NO_VALUES = new double[0];
+	
+	/**
+	 * Receives the stored cells of a matrix
+	 */
+	public interface CellVisitor<T, S>
+	{
+		public void visit( T col, S row, double value );
+	}
+	
+	//Per column: sorted row positions, values and the number in use
+	int[][] rowIndices;
+	double[][] values;
+	int[] counts;
+	int stored;
+	//Row storage position to position in the row key list, or -1
+	int[] rowPositions;
+	
+	public SparseDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public SparseDoubleMatrix( Collection<? extends T> colIndexes, Collection<? extends S> rowIndexes, double initial )
+	{
+		this( new ArrayIndexSet<T>( colIndexes ), new ArrayIndexSet<S>( rowIndexes ), initial );
+	}
+	
+	public SparseDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes )
+	{
+		this( colIndexes, rowIndexes, 0 );
+	}
+	
+	public SparseDoubleMatrix( IndexSet<T> colIndexes, IndexSet<S> rowIndexes, double initial )
+	{
+		super( colIndexes, rowIndexes, initial );
+		rowIndices = new int[numCols][];
+		values = new double[numCols][];
+		counts = new int[numCols];
+		rowPositions = new int[numRows];
+		Arrays.fill( rowPositions, -1 );
+		for( int j = 0; j < rowSlots.length; j++ ) {
+			rowPositions[rowSlots[j]] = j;
+		}
+		clear();
+	}
+	
+	@Override
+	public double get( int col, int row )
+	{
+		int k = Arrays.binarySearch( rowIndices[col], 0, counts[col], row );
+		return k >= 0 ? values[col][k] : initial;
+	}
+	
+	@Override
+	public void put( int col, int row, double value )
+	{
+		double old = set( col, row, value );
+		changed( col, row, value - old );
+	}
+	
+	@Override
+	public void add( int col, int row, double amount )
+	{
+		set( col, row, get( col, row ) + amount );
+		changed( col, row, amount );
+	}
+	
+	/**
+	 * Stores the value, or removes the cell if the value is the initial one
+	 * @return the previous value
+	 */
+	double set( int col, int row, double value )
+	{
+		int[] rows = rowIndices[col];
+		double[] vals = values[col];
+		int n = counts[col];
+		int k = Arrays.binarySearch( rows, 0, n, row );
+		if( k >= 0 )
+		{
+			double old = vals[k];
+			if( value == initial )
+			{
+				System.arraycopy( rows, k + 1, rows, k, n - k - 1 );
+				System.arraycopy( vals, k + 1, vals, k, n - k - 1 );
+				counts[col]--;
+				stored--;
+			}
+			else {
+				vals[k] = value;
+			}
+			return old;
+		}
+		if( value == initial ) {
+			return initial;
+		}
+		k = -k - 1;
+		if( n == rows.length )
+		{
+			int capacity = Math.max( 4, n + ( n >> 1 ) );
+			rowIndices[col] = rows = Arrays.copyOf( rows, capacity );
+			values[col] = vals = Arrays.copyOf( vals, capacity );
+		}
+		System.arraycopy( rows, k, rows, k + 1, n - k );
+		System.arraycopy( vals, k, vals, k + 1, n - k );
+		rows[k] = row;
+		vals[k] = value;
+		counts[col]++;
+		stored++;
+		return initial;
+	}
+	
+	@Override
+	public void clear()
+	{
+		Arrays.fill( rowIndices, NO_ROWS );
+		Arrays.fill( values, NO_VALUES );
+		Arrays.fill( counts, 0 );
+		stored = 0;
+		total = initial * size();
+		dirty();
+	}
+	
+	/**
+	 * @return the number of cells which hold something other than the initial value
+	 */
+	public int getStoredCount()
+	{
+		return stored;
+	}
+	
+	/**
+	 * Calls the visitor for each stored (i.e. non-initial) cell, column by column
+	 * @param visitor
+	 */
+	public void forEachStored( CellVisitor<? super T, ? super S> visitor )
+	{
+		for( int i = 0; i < colSlots.length; i++ )
+		{
+			int c = colSlots[i];
+			T col = colIndexes.get( i );
+			int[] rows = rowIndices[c];
+			double[] vals = values[c];
+			for( int k = 0; k < counts[c]; k++ )
+			{
+				int j = rowPositions[rows[k]];
+				if( j >= 0 ) {
+					visitor.visit( col, rowIndexes.get( j ), vals[k] );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Visits stored cells only; the cells holding the initial value are accounted for per row
+	 * and column in one go
+	 */
+	@Override
+	void updateAggregates()
+	{
+		colTotals.clear();
+		rowTotals.clear();
+		colWeightedTotals.clear();
+		rowWeightedTotals.clear();
+		colWeights = weights( colWeightings, colIndexes, numCols );
+		rowWeights = weights( rowWeightings, rowIndexes, numRows );
+		double[] ct = colTotals.data;
+		double[] cwt = colWeightedTotals.data;
+		double[] rt = rowTotals.data;
+		double[] rwt = rowWeightedTotals.data;
+		Aggregate a = new Aggregate( ct, cwt, rt, rwt );
+		
+		//Start as if every cell held the initial value
+		double rowWeightSum = 0;
+		double colWeightSum = 0;
+		for( int r : rowSlots ) {
+			rowWeightSum += rowWeights[r];
+		}
+		for( int c : colSlots ) {
+			colWeightSum += colWeights[c];
+		}
+		for( int r : rowSlots )
+		{
+			rt[r] = initial * colSlots.length;
+			rwt[r] = initial * rowWeights[r] * colWeightSum;
+		}
+		
+		for( int i = 0; i < colSlots.length; i++ )
+		{
+			int c = colSlots[i];
+			double cw = colWeights[c];
+			int[] rows = rowIndices[c];
+			double[] vals = values[c];
+			double sum = initial * rowSlots.length;
+			double weighted = initial * cw * rowWeightSum;
+			int present = 0;
+			for( int k = 0; k < counts[c]; k++ )
+			{
+				int r = rows[k];
+				int j = rowPositions[r];
+				if( j < 0 ) {
+					continue;
+				}
+				double diff = vals[k] - initial;
+				double w = diff * rowWeights[r] * cw;
+				sum += diff;
+				weighted += w;
+				rt[r] += diff;
+				rwt[r] += w;
+				a.extremes( i, j, vals[k] );
+				present++;
+			}
+			if( present < rowSlots.length ) {
+				a.extremes( i, firstUnstored( c ), initial );
+			}
+			ct[c] = sum;
+			cwt[c] = weighted;
+			a.total += sum;
+		}
+		store( a );
+		updatesSinceResum = 0;
+	}
+	
+	/**
+	 * @return the position in the row key list of the first row of the column which holds the initial value
+	 */
+	int firstUnstored( int col )
+	{
+		for( int j = 0; j < rowSlots.length; j++ ) {
+			if( Arrays.binarySearch( rowIndices[col], 0, counts[col], rowSlots[j] ) < 0 ) {
+				return j;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	public DoubleMap<S> getColumn( T column )
+	{
+		DoubleMap<S> col = new DoubleMap<S>( rowIndexes, initial );
+		int c = colPos( column );
+		for( int k = 0; k < counts[c]; k++ ) {
+			col.data[rowIndices[c][k]] = values[c][k];
+		}
+		col.dirty();
+		return col;
+	}
+	
+	/**
+	 * Creates a new matrix with the same structure (but no data)
+	 * @return
+	 */
+	@Override
+	public SparseDoubleMatrix<T, S> duplicate()
+	{
+		return new SparseDoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+	}
+	
+	/**
+	 * Copies the non-initial cells of a DoubleMatrix into a new sparse matrix
+	 * @param source
+	 * @return
+	 */
+	public static <T extends Indexed, S extends Indexed> SparseDoubleMatrix<T, S> fromDoubleMatrix( DoubleMatrix<T, S> source )
+	{
+		SparseDoubleMatrix<T, S> ret = new SparseDoubleMatrix<T, S>( source.colIndexes, source.rowIndexes, source.initial );
+		for( int c : ret.colSlots ) {
+			for( int r : ret.rowSlots ) {
+				ret.set( c, r, source.data[c][r] );
+			}
+		}
+		ret.dirty();
+		return ret;
+	}
+	
+	/**
+	 * Copies the values into a dense DoubleMatrix
+	 * @return
+	 */
+	public DoubleMatrix<T, S> toDoubleMatrix()
+	{
+		DoubleMatrix<T, S> ret = new DoubleMatrix<T, S>( colIndexes, rowIndexes, initial );
+		for( int c = 0; c < numCols; c++ ) {
+			for( int k = 0; k < counts[c]; k++ ) {
+				ret.data[c][rowIndices[c][k]] = values[c][k];
+			}
+		}
+		ret.dirty();
+		return ret;
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+/**
+ * Writes CSV records through a large buffer onto a channel. Each record is
+ * built up in a reusable char array, and doubles are formatted straight into
+ * it with DoubleFormatter, so writing numbers doesn't create any Strings.
+ * 
+ * Text fields are trimmed and quoted in the same way as CsvWriter's
+ * writeRecord, so output matches apart from the shortest number formatting.
+ */
+public class CsvStreamWriter implements Closeable, Flushable {
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	final WritableByteChannel channel;
+	final char delimiter;
+	final char[] recordDelimiter = System.getProperty("line.separator")
+			.toCharArray();
+	final CharsetEncoder encoder;
+	final ByteBuffer bytes;
+	char[] record = new char[1024];
+	int length = 0;
+	boolean firstColumn = true;
+
+	public CsvStreamWriter(String fileName, char delimiter) throws IOException {
+		this(new FileOutputStream(fileName).getChannel(), delimiter,
+				Charset.forName("ISO-8859-1"), DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvStreamWriter(String fileName) throws IOException {
+		this(fileName, ',');
+	}
+
+	public CsvStreamWriter(WritableByteChannel channel, char delimiter,
+			Charset charset, int bufferSize) {
+		this.channel = channel;
+		this.delimiter = delimiter;
+		this.encoder = charset.newEncoder();
+		this.bytes = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Adds a numeric field to the current record
+	 */
+	public void write(double value) {
+		ensure(DoubleFormatter.MAX_CHARS + 1);
+		startField();
+		length = DoubleFormatter.format(value, record, length);
+	}
+
+	/**
+	 * Adds a text field to the current record. It is trimmed, and quoted if
+	 * it needs to be
+	 */
+	public void write(String content) {
+		if (content == null) {
+			content = "";
+		}
+		content = content.trim();
+		int n = content.length();
+		ensure(2 * n + 3);
+		boolean first = firstColumn;
+		startField();
+		boolean quote = (first && (n == 0 || content.charAt(0) == '#'))
+				|| content.indexOf('"') >= 0 || content.indexOf(delimiter) >= 0
+				|| content.indexOf('\n') >= 0 || content.indexOf('\r') >= 0;
+		if (!quote) {
+			content.getChars(0, n, record, length);
+			length += n;
+		} else {
+			record[length++] = '"';
+			for (int i = 0; i < n; i++) {
+				char c = content.charAt(i);
+				if (c == '"') {
+					record[length++] = '"';
+				}
+				record[length++] = c;
+			}
+			record[length++] = '"';
+		}
+	}
+
+	public void writeRecord(String[] values) throws IOException {
+		for (String v : values) {
+			write(v);
+		}
+		endRecord();
+	}
+
+	/**
+	 * Ends the current record and moves it into the output buffer
+	 */
+	public void endRecord() throws IOException {
+		ensure(recordDelimiter.length);
+		System.arraycopy(recordDelimiter, 0, record, length,
+				recordDelimiter.length);
+		length += recordDelimiter.length;
+		encode();
+		firstColumn = true;
+	}
+
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Writes out anything buffered, including a partly written record
+	 */
+	public void close() throws IOException {
+		encode();
+		drain();
+		channel.close();
+	}
+
+	void encode() throws IOException {
+		CharBuffer in = CharBuffer.wrap(record, 0, length);
+		while (true) {
+			CoderResult result = encoder.encode(in, bytes, false);
+			if (result.isOverflow()) {
+				drain();
+			} else if (result.isUnderflow()) {
+				break;
+			} else {
+				result.throwException();
+			}
+		}
+		length = 0;
+	}
+
+	void startField() {
+		if (!firstColumn) {
+			record[length++] = delimiter;
+		}
+		firstColumn = false;
+	}
+
+	void ensure(int extra) {
+		if (length + extra + 1 > record.length) {
+			record = Arrays.copyOf(record,
+					Math.max(record.length * 2, length + extra + 1));
+		}
+	}
+
+	void drain() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		bytes.clear();
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.moseph.modelutils.fastdata.Indexed;
+import com.moseph.modelutils.fastdata.Named;
+import com.moseph.modelutils.fastdata.NamedArrayIndexSet;
+
+/**
+ * Command line tool to convert CSV files into the fastdata binary format, so
+ * they can be loaded with EasyPersister.binaryToMatrix or binaryToDoubleMap.
+ * 
+ * <pre>
+ * CsvToBinary matrix input.csv output.fdat
+ * CsvToBinary map input.csv column output.fdat
+ * </pre>
+ * 
+ * The keys are taken from the file itself: columns from the headers and rows
+ * from the first field of each record, numbered in the order they appear.
+ * The readers match these up with the model's keys by name.
+ */
+public class CsvToBinary {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 3 && args[0].equals("matrix")) {
+			convertMatrix(args[1], args[2]);
+		} else if (args.length == 4 && args[0].equals("map")) {
+			convertMap(args[1], args[2], args[3]);
+		} else {
+			System.err.println("Usage: CsvToBinary matrix <input.csv> <output>");
+			System.err.println("       CsvToBinary map <input.csv> <column> <output>");
+			System.exit(1);
+		}
+	}
+
+	public static void convertMatrix(String csvFile, String binaryFile)
+			throws IOException {
+		EasyPersister persister = new EasyPersister();
+		CsvTokenizer reader = persister.getCSVTokenizer(csvFile, null);
+		String[] headers = reader.getHeaders();
+		NamedArrayIndexSet<Key> cols = keys(Arrays.asList(headers).subList(1,
+				headers.length));
+		NamedArrayIndexSet<Key> rows = keys(rowNames(reader));
+		persister.csvToBinaryMatrix(csvFile, binaryFile, cols, rows, null);
+	}
+
+	public static void convertMap(String csvFile, String column,
+			String binaryFile) throws IOException {
+		EasyPersister persister = new EasyPersister();
+		NamedArrayIndexSet<Key> rows = keys(rowNames(persister
+				.getCSVTokenizer(csvFile, null)));
+		persister.csvToBinaryDoubleMap(csvFile, binaryFile, rows, column, null);
+	}
+
+	/**
+	 * Reads the rest of the file, and returns the distinct first fields in order
+	 */
+	static List<String> rowNames(CsvTokenizer reader) throws IOException {
+		Set<String> names = new LinkedHashSet<String>();
+		while (reader.readRecord()) {
+			names.add(reader.get(0));
+		}
+		reader.close();
+		return new ArrayList<String>(names);
+	}
+
+	static NamedArrayIndexSet<Key> keys(List<String> names) {
+		List<Key> keys = new ArrayList<Key>();
+		for (String name : names) {
+			keys.add(new Key(name, keys.size()));
+		}
+		return new NamedArrayIndexSet<Key>(keys);
+	}
+
+	/**
+	 * A key read from a file
+	 */
+	public static class Key implements Indexed, Named {
+		final String name;
+		final int index;
+
+		public Key(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal CSV reader which keeps the current record in a character buffer,
+ * so numeric fields can be parsed with FastDoubleParser without making a
+ * String for each one. Strings are only created when asked for with get().
+ * 
+ * Follows CsvReader's default behaviour: fields may be quoted with double
+ * quotes (with "" as an escaped quote), unquoted fields are trimmed of spaces
+ * and tabs, records end with \n, \r or \r\n, and empty lines are skipped.
+ * Unknown columns read as empty.
+ */
+public class CsvTokenizer implements Closeable {
+	final Reader reader;
+	final char delimiter;
+	char[] buffer = new char[1 << 16];
+	int position = 0;
+	int limit = 0;
+	boolean eof = false;
+
+	/**
+	 * The current record's fields are record[starts[i]] to record[ends[i]]
+	 */
+	char[] record = new char[1024];
+	int[] starts = new int[16];
+	int[] ends = new int[16];
+	int columnCount = 0;
+	long currentRecord = -1;
+
+	String[] headers = new String[0];
+	Map<String, Integer> headerIndex = new HashMap<String, Integer>();
+
+	public CsvTokenizer(String fileName, char delimiter) throws IOException {
+		this(new InputStreamReader(new FileInputStream(fileName),
+				Charset.forName("ISO-8859-1")), delimiter);
+	}
+
+	public CsvTokenizer(Reader reader, char delimiter) {
+		this.reader = reader;
+		this.delimiter = delimiter;
+	}
+
+	public CsvTokenizer(Reader reader) {
+		this(reader, ',');
+	}
+
+	/**
+	 * Reads the next record as the headers
+	 * 
+	 * @return false if there were no more records
+	 * @throws IOException
+	 */
+	public boolean readHeaders() throws IOException {
+		boolean read = readRecord();
+		headers = new String[read ? columnCount : 0];
+		headerIndex.clear();
+		for (int i = 0; i < headers.length; i++) {
+			headers[i] = get(i);
+			headerIndex.put(headers[i], i);
+		}
+		columnCount = 0;
+		currentRecord = -1;
+		return read;
+	}
+
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+
+	public int getHeaderCount() {
+		return headers.length;
+	}
+
+	/**
+	 * @return the position of the named header, or -1 if there isn't one
+	 */
+	public int getIndex(String header) {
+		Integer i = headerIndex.get(header);
+		return i == null ? -1 : i;
+	}
+
+	public long getCurrentRecord() {
+		return currentRecord;
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * Reads the next non-empty record
+	 * 
+	 * @return false at the end of the input
+	 * @throws IOException
+	 */
+	public boolean readRecord() throws IOException {
+		columnCount = 0;
+		int c = read();
+		while (c == '\n' || c == '\r') {
+			c = read();
+		}
+		if (c < 0) {
+			return false;
+		}
+		int length = 0;
+		while (true) {
+			// Start of a field: skip leading whitespace
+			while (c == ' ' || c == '\t') {
+				c = read();
+			}
+			int start = length;
+			int end;
+			if (c == '"') {
+				c = read();
+				while (c >= 0) {
+					if (c == '"') {
+						c = read();
+						if (c != '"') {
+							break;
+						}
+					}
+					if (length == record.length) {
+						record = Arrays.copyOf(record, length * 2);
+					}
+					record[length++] = (char) c;
+					c = read();
+				}
+				end = length;
+				// Anything between the closing quote and the delimiter is
+				// dropped
+				while (c >= 0 && c != delimiter && c != '\n' && c != '\r') {
+					c = read();
+				}
+			} else {
+				end = length;
+				while (c >= 0 && c != delimiter && c != '\n' && c != '\r') {
+					if (length == record.length) {
+						record = Arrays.copyOf(record, length * 2);
+					}
+					record[length++] = (char) c;
+					if (c != ' ' && c != '\t') {
+						end = length;
+					}
+					c = read();
+				}
+				length = end;
+			}
+			addField(start, end);
+			if (c != delimiter) {
+				break;
+			}
+			c = read();
+		}
+		if (c == '\r') {
+			// Swallow the \n of a \r\n
+			if (peek() == '\n') {
+				read();
+			}
+		}
+		currentRecord++;
+		return true;
+	}
+
+	void addField(int start, int end) {
+		if (columnCount == starts.length) {
+			starts = Arrays.copyOf(starts, columnCount * 2);
+			ends = Arrays.copyOf(ends, columnCount * 2);
+		}
+		starts[columnCount] = start;
+		ends[columnCount] = end;
+		columnCount++;
+	}
+
+	/**
+	 * @return the field at the given position, or "" if there isn't one
+	 */
+	public String get(int column) {
+		if (column < 0 || column >= columnCount) {
+			return "";
+		}
+		return new String(record, starts[column], ends[column] - starts[column]);
+	}
+
+	/**
+	 * @return the field under the given header, or "" if there isn't one
+	 */
+	public String get(String header) {
+		return get(getIndex(header));
+	}
+
+	/**
+	 * @return true if the field is empty or missing
+	 */
+	public boolean isEmpty(int column) {
+		return column < 0 || column >= columnCount
+				|| starts[column] == ends[column];
+	}
+
+	/**
+	 * Parses the field at the given position as a double
+	 * 
+	 * @throws NumberFormatException
+	 *             if it isn't a number (including if it is empty or missing)
+	 */
+	public double getDouble(int column) {
+		if (column < 0 || column >= columnCount) {
+			return Double.parseDouble("");
+		}
+		return FastDoubleParser.parseDouble(record, starts[column], ends[column]);
+	}
+
+	public double getDouble(String header) {
+		return getDouble(getIndex(header));
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	int peek() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position];
+	}
+
+	boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			eof = true;
+			return false;
+		}
+		position = 0;
+		limit = n;
+		return true;
+	}
+}
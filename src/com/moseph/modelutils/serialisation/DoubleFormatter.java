@@ -0,0 +1,266 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.math.BigInteger;
+
+/**
+ * Writes doubles as the shortest decimal which reads back as the same value,
+ * straight into a char array. Uses the Schubfach algorithm (R. Giulietti),
+ * with its table of 126 bit powers of ten built at class load.
+ * 
+ * The layout follows Double.toString: plain notation with at least one
+ * fractional digit for magnitudes from 10^-3 to 10^7 (e.g. 12.5, 100.0,
+ * 0.001), and computerised scientific notation otherwise (e.g. 1.0E-5,
+ * 1.2345E10). The digits can differ from Double.toString, which sometimes
+ * gives more than are needed.
+ */
+public class DoubleFormatter {
+	/**
+	 * Longest output, e.g. -2.2250738585072014E-308
+	 */
+	public static final int MAX_CHARS = 24;
+
+	static final int K_MIN = -324;
+	static final int K_MAX = 292;
+	static final long MASK_63 = (1L << 63) - 1;
+	static final int Q_MIN = -1074;
+	static final long C_MIN = 1L << 52;
+	static final int C_TINY = 3;
+	/**
+	 * 10^-k is just under (G1 2^63 + G0) 2^r
+	 */
+	static final long[] G1 = new long[K_MAX - K_MIN + 1];
+	static final long[] G0 = new long[K_MAX - K_MIN + 1];
+
+	static {
+		BigInteger ten = BigInteger.TEN;
+		for (int k = K_MIN; k <= K_MAX; k++) {
+			int r = flog2pow10(-k) - 125;
+			BigInteger g;
+			if (k <= 0) {
+				BigInteger p = ten.pow(-k);
+				g = r < 0 ? p.shiftLeft(-r) : p.shiftRight(r);
+			} else {
+				g = BigInteger.ONE.shiftLeft(-r).divide(ten.pow(k));
+			}
+			g = g.add(BigInteger.ONE);
+			G1[k - K_MIN] = g.shiftRight(63).longValue();
+			G0[k - K_MIN] = g.longValue() & MASK_63;
+		}
+	}
+
+	/**
+	 * Formats v into chars from position pos
+	 * 
+	 * @return the position after the last character written
+	 */
+	public static int format(double v, char[] chars, int pos) {
+		long bits = Double.doubleToRawLongBits(v);
+		long t = bits & (C_MIN - 1);
+		int bq = (int) (bits >>> 52) & 0x7FF;
+		if (bq == 0x7FF) {
+			return append(t != 0 ? "NaN" : bits < 0 ? "-Infinity"
+					: "Infinity", chars, pos);
+		}
+		if (bits < 0) {
+			chars[pos++] = '-';
+		}
+		if (bq != 0) {
+			int mq = -Q_MIN + 1 - bq;
+			long c = C_MIN | t;
+			if (0 < mq && mq < 53) {
+				// Integers are exact
+				long f = c >> mq;
+				if (f << mq == c) {
+					return toChars(f, 0, chars, pos);
+				}
+			}
+			return toDecimal(-mq, c, 0, chars, pos);
+		}
+		if (t != 0) {
+			// Subnormal
+			return t < C_TINY ? toDecimal(Q_MIN, 10 * t, -1, chars, pos)
+					: toDecimal(Q_MIN, t, 0, chars, pos);
+		}
+		return append("0.0", chars, pos);
+	}
+
+	/**
+	 * As Double.toString, but with the shortest digits
+	 */
+	public static String toString(double v) {
+		char[] chars = new char[MAX_CHARS];
+		return new String(chars, 0, format(v, chars, 0));
+	}
+
+	/**
+	 * Decimal for c 2^q
+	 */
+	static int toDecimal(int q, long c, int dk, char[] chars, int pos) {
+		int out = (int) c & 1;
+		long cb = c << 2;
+		long cbr = cb + 2;
+		long cbl;
+		int k;
+		if (c != C_MIN || q == Q_MIN) {
+			cbl = cb - 2;
+			k = flog10pow2(q);
+		} else {
+			// The gap below is half the size of the one above
+			cbl = cb - 1;
+			k = flog10threeQuartersPow2(q);
+		}
+		int h = q + flog2pow10(-k) + 2;
+		long g1 = G1[k - K_MIN];
+		long g0 = G0[k - K_MIN];
+		long vb = rop(g1, g0, cb << h);
+		long vbl = rop(g1, g0, cbl << h);
+		long vbr = rop(g1, g0, cbr << h);
+		long s = vb >> 2;
+		if (s >= 100) {
+			// Try one digit fewer first
+			long sp10 = 10 * FastDoubleParser.multiplyHigh(s,
+					115292150460684698L << 4);
+			long tp10 = sp10 + 10;
+			boolean upin = vbl + out <= sp10 << 2;
+			boolean wpin = (tp10 << 2) + out <= vbr;
+			if (upin != wpin) {
+				return toChars(upin ? sp10 : tp10, k, chars, pos);
+			}
+		}
+		long u = s + 1;
+		boolean uin = vbl + out <= s << 2;
+		boolean win = (u << 2) + out <= vbr;
+		if (uin != win) {
+			return toChars(uin ? s : u, k + dk, chars, pos);
+		}
+		long cmp = vb - (s + u << 1);
+		return toChars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : u, k + dk,
+				chars, pos);
+	}
+
+	/**
+	 * Rounded to odd product of g and cp, scaled down by 2^127
+	 */
+	static long rop(long g1, long g0, long cp) {
+		long x1 = FastDoubleParser.multiplyHigh(g0, cp);
+		long y0 = g1 * cp;
+		long y1 = FastDoubleParser.multiplyHigh(g1, cp);
+		long z = (y0 >>> 1) + x1;
+		long vbp = y1 + (z >>> 63);
+		return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+	}
+
+	/**
+	 * Writes f 10^e in Double.toString's layout
+	 */
+	static int toChars(long f, int e, char[] chars, int pos) {
+		while (f % 10 == 0) {
+			f /= 10;
+			e++;
+		}
+		int digits = digits(f);
+		int exponent = e + digits - 1;
+		if (exponent >= -3 && exponent < 7) {
+			if (e >= 0) {
+				pos = writeDigits(f, digits, chars, pos);
+				for (int i = 0; i < e; i++) {
+					chars[pos++] = '0';
+				}
+				chars[pos++] = '.';
+				chars[pos++] = '0';
+			} else if (exponent >= 0) {
+				// Point inside the digits
+				int end = writeDigits(f, digits, chars, pos + 1);
+				System.arraycopy(chars, pos + 1, chars, pos, exponent + 1);
+				chars[pos + exponent + 1] = '.';
+				pos = end;
+			} else {
+				chars[pos++] = '0';
+				chars[pos++] = '.';
+				for (int i = exponent + 1; i < 0; i++) {
+					chars[pos++] = '0';
+				}
+				pos = writeDigits(f, digits, chars, pos);
+			}
+			return pos;
+		}
+		// d.dddE[-]x
+		int end = writeDigits(f, digits, chars, pos + 1);
+		chars[pos] = chars[pos + 1];
+		chars[pos + 1] = '.';
+		if (digits == 1) {
+			chars[end++] = '0';
+		}
+		chars[end++] = 'E';
+		if (exponent < 0) {
+			chars[end++] = '-';
+			exponent = -exponent;
+		}
+		return writeDigits(exponent, digits(exponent), chars, end);
+	}
+
+	static int writeDigits(long f, int digits, char[] chars, int pos) {
+		int end = pos + digits;
+		for (int i = end - 1; i >= pos; i--) {
+			chars[i] = (char) ('0' + f % 10);
+			f /= 10;
+		}
+		return end;
+	}
+
+	static int digits(long f) {
+		int n = 1;
+		for (long p = 10; n < 19 && f >= p; p *= 10) {
+			n++;
+		}
+		return n;
+	}
+
+	static int append(String s, char[] chars, int pos) {
+		s.getChars(0, s.length(), chars, pos);
+		return pos + s.length();
+	}
+
+	/**
+	 * floor(e log10(2))
+	 */
+	static int flog10pow2(int e) {
+		return (int) (e * 661971961083L >> 41);
+	}
+
+	/**
+	 * floor(e log10(2) + log10(3/4))
+	 */
+	static int flog10threeQuartersPow2(int e) {
+		return (int) (e * 661971961083L + -274743187321L >> 41);
+	}
+
+	/**
+	 * floor(e log2(10))
+	 */
+	static int flog2pow10(int e) {
+		return (int) (e * 913124641741L >> 38);
+	}
+}
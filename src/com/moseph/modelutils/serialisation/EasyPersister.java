@@ -49,8 +49,11 @@ import com.google.common.collect.Table;
 import com.moseph.gis.raster.Raster;
 import com.moseph.gis.raster.RasterReader;
 import com.moseph.modelutils.curve.LinearInterpolator;
+import com.moseph.modelutils.fastdata.BinaryFormat;
 import com.moseph.modelutils.fastdata.DoubleMap;
 import com.moseph.modelutils.fastdata.DoubleMatrix;
+import com.moseph.modelutils.fastdata.MatrixCsvLoader;
+import com.moseph.modelutils.fastdata.IndexSet;
 import com.moseph.modelutils.fastdata.Indexed;
 import com.moseph.modelutils.fastdata.Named;
 import com.moseph.modelutils.fastdata.NamedIndexSet;
@@ -81,6 +84,7 @@ public class EasyPersister extends Persister {
 										// stored here
 	Logger log = Logger.getLogger(getClass()); // Logger
 	Map<String, String> context = new HashMap<String, String>();
+	long parallelCsvThreshold = ParallelCsvLoader.DEFAULT_PARALLEL_THRESHOLD; // Bigger CSV files are read in parallel
 
 	/*
 	 * Constructors
@@ -408,6 +412,81 @@ public class EasyPersister extends Persister {
 		return reader;
 	}
 
+	/**
+	 * As getCSVReader, but returns a tokenizer which can parse numbers
+	 * without creating Strings
+	 * 
+	 * @param relativePath
+	 * @return
+	 * @throws IOException
+	 */
+	public CsvTokenizer getCSVTokenizer(String relativePath,
+			Map<String, String> extra) throws IOException {
+		char delimiter = ',';
+		if (relativePath.toLowerCase().matches(".*\\.tsv")) {
+			delimiter = '\t';
+		}
+		return getCSVTokenizer(relativePath, delimiter, extra);
+	}
+
+	/**
+	 * Return a CSV tokenizer with the given delimiter, which has read the
+	 * headers
+	 * 
+	 * @param relativePath
+	 * @param delimiter
+	 * @return
+	 * @throws IOException
+	 */
+	public CsvTokenizer getCSVTokenizer(String relativePath, char delimiter,
+			Map<String, String> extra) throws IOException {
+		CsvTokenizer reader = new CsvTokenizer(getFullPath(relativePath, extra),
+				delimiter);
+		reader.readHeaders();
+		return reader;
+	}
+
+	/**
+	 * Returns a loader which reads the file in parallel if it is large
+	 * 
+	 * @param relativePath
+	 * @return
+	 * @throws IOException
+	 */
+	public ParallelCsvLoader getParallelCSVLoader(String relativePath,
+			Map<String, String> extra) throws IOException {
+		char delimiter = ',';
+		if (relativePath.toLowerCase().matches(".*\\.tsv")) {
+			delimiter = '\t';
+		}
+		return getParallelCSVLoader(relativePath, delimiter, extra);
+	}
+
+	/**
+	 * Returns a loader with the given delimiter
+	 * 
+	 * @param relativePath
+	 * @return
+	 * @throws IOException
+	 */
+	public ParallelCsvLoader getParallelCSVLoader(String relativePath,
+			char delimiter, Map<String, String> extra) throws IOException {
+		ParallelCsvLoader loader = new ParallelCsvLoader(getFullPath(
+				relativePath, extra), delimiter);
+		loader.setParallelThreshold(parallelCsvThreshold);
+		return loader;
+	}
+
+	/**
+	 * CSV files with more data than this are read in parallel by
+	 * csvToNumericMap and csvToDoubleTable
+	 * 
+	 * @param bytes
+	 */
+	public void setParallelCsvThreshold(long bytes) {
+		this.parallelCsvThreshold = bytes;
+	}
+
 	/*
 	 * CSV Reading and conversion functionality
 	 */
@@ -436,8 +515,8 @@ public class EasyPersister extends Persister {
 			throws IOException {
 		// TODO check if LinkedHashMap required
 		Map<String, Double> map = new LinkedHashMap<String, Double>();
-		CsvReader reader = getCSVReader(csvFile, extra);
-		Set<String> headers = new HashSet<String>(Arrays.asList(reader
+		ParallelCsvLoader loader = getParallelCSVLoader(csvFile, extra);
+		Set<String> headers = new HashSet<String>(Arrays.asList(loader
 				.getHeaders()));
 		if (!headers.contains(dataColumn)) {
 			log.fatal("Looking for data column " + dataColumn + " in "
@@ -447,16 +526,25 @@ public class EasyPersister extends Persister {
 			log.fatal("Looking for name column " + nameColumn + " in "
 					+ csvFile + " but it doesn't exist");
 		}
-		while (reader.readRecord()) {
-			if (reader.get(dataColumn) != null
-					&& reader.get(dataColumn).length() > 0) {
-				map.put(reader.get(nameColumn),
-						Double.parseDouble(reader.get(dataColumn)));
-			} else {
-				log.debug("No value for " + reader.get(nameColumn));
-			}
+		final int data = loader.getIndex(dataColumn);
+		final int name = loader.getIndex(nameColumn);
+		List<Map<String, Double>> chunks = loader
+				.load(new ParallelCsvLoader.ChunkReader<Map<String, Double>>() {
+					public Map<String, Double> start() {
+						return new LinkedHashMap<String, Double>();
+					}
+
+					public void read(CsvTokenizer reader, Map<String, Double> chunk) {
+						if (!reader.isEmpty(data)) {
+							chunk.put(reader.get(name), reader.getDouble(data));
+						} else {
+							log.debug("No value for " + reader.get(name));
+						}
+					}
+				});
+		for (Map<String, Double> chunk : chunks) {
+			map.putAll(chunk);
 		}
-		reader.close();
 		return map;
 	}
 
@@ -571,25 +659,44 @@ public class EasyPersister extends Persister {
 		// Map<String,Map<String, Double>> map = new HashMap<String,
 		// Map<String,Double>>();
 		Table<String, String, Double> map = HashBasedTable.create();
-		CsvReader reader = getCSVReader(csvFile, delimiter, extra);
+		ParallelCsvLoader loader = getParallelCSVLoader(csvFile, delimiter, extra);
 		Set<String> cols = columnsToGet;
 		if (cols == null) {
-			cols = new HashSet<String>(Arrays.asList(reader.getHeaders()));
+			cols = new HashSet<String>(Arrays.asList(loader.getHeaders()));
 		}
 		cols.remove(nameColumn);
 		if (ignoreColumns != null) {
 			cols.removeAll(ignoreColumns);
 		}
 
-		while (reader.readRecord()) {
-			for (String s : cols) {
-				String val = reader.get(s);
-				if (val != null && val.length() > 0) {
-					map.put(reader.get(nameColumn), s, Double.parseDouble(val));
-				}
-			}
+		final String[] names = cols.toArray(new String[cols.size()]);
+		final int[] indices = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			indices[i] = loader.getIndex(names[i]);
+		}
+		final int name = loader.getIndex(nameColumn);
+		List<Table<String, String, Double>> chunks = loader
+				.load(new ParallelCsvLoader.ChunkReader<Table<String, String, Double>>() {
+					public Table<String, String, Double> start() {
+						return HashBasedTable.create();
+					}
+
+					public void read(CsvTokenizer reader,
+							Table<String, String, Double> chunk) {
+						String row = null;
+						for (int i = 0; i < names.length; i++) {
+							if (!reader.isEmpty(indices[i])) {
+								if (row == null) {
+									row = reader.get(name);
+								}
+								chunk.put(row, names[i], reader.getDouble(indices[i]));
+							}
+						}
+					}
+				});
+		for (Table<String, String, Double> chunk : chunks) {
+			map.putAll(chunk);
 		}
-		reader.close();
 		return map;
 	}
 
@@ -617,7 +724,7 @@ public class EasyPersister extends Persister {
 			throws IOException {
 		// TODO check if LinkedHashMap required
 		Map<String, LinearInterpolator> map = new LinkedHashMap<String, LinearInterpolator>();
-		CsvReader reader = getCSVReader(csvFile, extra);
+		CsvTokenizer reader = getCSVTokenizer(csvFile, extra);
 
 		if (xCol == null) {
 			xCol = reader.getHeaders()[0];
@@ -632,10 +739,18 @@ public class EasyPersister extends Persister {
 			map.put(s, new LinearInterpolator());
 		}
 
-		while (reader.readRecord() && reader.get(xCol).length() > 0) {
-			double year = Double.parseDouble(reader.get(xCol));
-			for (String s : columns) {
-				map.get(s).addPoint(year, Double.parseDouble(reader.get(s)));
+		int x = reader.getIndex(xCol);
+		LinearInterpolator[] curves = new LinearInterpolator[columns.size()];
+		int[] indices = new int[columns.size()];
+		int n = 0;
+		for (String s : columns) {
+			curves[n] = map.get(s);
+			indices[n++] = reader.getIndex(s);
+		}
+		while (reader.readRecord() && !reader.isEmpty(x)) {
+			double year = reader.getDouble(x);
+			for (int i = 0; i < n; i++) {
+				curves[i].addPoint(year, reader.getDouble(indices[i]));
 			}
 		}
 		reader.close();
@@ -681,7 +796,7 @@ public class EasyPersister extends Persister {
 			throws NumberFormatException, IOException {
 		// TODO check if LinkedHashMap required
 		Map<String, LinearInterpolator> map = new LinkedHashMap<String, LinearInterpolator>();
-		CsvReader reader = getCSVReader(csvFile, extra);
+		CsvTokenizer reader = getCSVTokenizer(csvFile, extra);
 		int[] columns = new int[reader.getHeaderCount() - 1];
 		for (int i = 1; i < reader.getHeaderCount(); i++) {
 			columns[i - 1] = Integer.parseInt(reader.getHeaders()[i]);
@@ -691,14 +806,13 @@ public class EasyPersister extends Persister {
 			LinearInterpolator bi = new LinearInterpolator();
 			for (int i = 1; i < reader.getHeaderCount(); i++) {
 				double val = 0;
-				String textVal = reader.get(i);
 				try {
-					val = Double.parseDouble(textVal);
+					val = reader.getDouble(i);
 					bi.addPoint(columns[i - 1], val);
 				} catch (Exception e) {
 					log.error("Bad string for value " + columns[i - 1]
 							+ " line " + reader.getCurrentRecord() + " file "
-							+ csvFile + " was: '" + textVal + "'");
+							+ csvFile + " was: '" + reader.get(i) + "'");
 					log.error(e.getMessage());
 				}
 			}
@@ -737,30 +851,28 @@ public class EasyPersister extends Persister {
 		if (!csvFileOK("", csvFile, true, extra, colNames)) {
 			throw new RuntimeException("Bad CSV File");
 		}
-		CsvReader reader = getCSVReader(csvFile, extra);
+		CsvTokenizer reader = getCSVTokenizer(csvFile, extra);
 
 		// Make the target map
 		DoubleMatrix<T, S> ret = new DoubleMatrix<T, S>(columns, rows);
+		MatrixCsvLoader<T, S> loader = new MatrixCsvLoader<T, S>(ret, columns, rows);
+		loader.bind(reader.getHeaders());
 		while (reader.readRecord()) {
-			String row = reader.get(0);
-			if (!rowNames.contains(row)) {
-				log.warn("Unknown row (" + row + ") in " + csvFile + " at line " + reader.getCurrentRecord()
+			if (loader.readRecord(reader) == null) {
+				log.warn("Unknown row (" + reader.get(0) + ") in " + csvFile + " at line " + reader.getCurrentRecord()
 						+ ". Known rows: " + rowNames);
-			} else {
-				S r = rows.forName(row);
-				rowNames.remove(row);
-				for (T col : columns) {
-					String s = reader.get(col.getName());
-					if (s != null && s.length() > 0) {
-						ret.put(col, r, Double.parseDouble(s));
-					}
-				}
 			}
 		}
+		loader.finish();
 		reader.close();
-		if (rowNames.size() > 0) {
+		List<S> missing = loader.getMissingRows();
+		if (missing.size() > 0) {
+			List<String> names = new ArrayList<String>();
+			for (S r : missing) {
+				names.add(r.getName());
+			}
 			log.warn("Didn't find all rows in " + csvFile + ". Missing: "
-					+ rowNames);
+					+ names);
 		}
 		return ret;
 	}
@@ -778,8 +890,9 @@ public class EasyPersister extends Persister {
 			rowNames.add(r.getName());
 		}
 
-		CsvReader reader = getCSVReader(csvFile, extra);
+		CsvTokenizer reader = getCSVTokenizer(csvFile, extra);
 		DoubleMap<T> map = new DoubleMap<T>(rows);
+		int data = reader.getIndex(column);
 		while (reader.readRecord()) {
 			String row = reader.get(0);
 			if (!rowNames.contains(row)) {
@@ -788,9 +901,8 @@ public class EasyPersister extends Persister {
 			} else {
 				T r = rows.forName(row);
 				rowNames.remove(row);
-				String s = reader.get(column);
-				if (s != null && s.length() > 0) {
-					map.put(r, Double.parseDouble(s));
+				if (!reader.isEmpty(data)) {
+					map.put(r, reader.getDouble(data));
 				}
 			}
 		}
@@ -802,6 +914,104 @@ public class EasyPersister extends Persister {
 		return map;
 	}
 
+	/*
+	 * Binary reading and writing for fastdata structures, see BinaryFormat
+	 */
+
+	/**
+	 * Writes the matrix to a binary file
+	 * 
+	 * @param matrix
+	 * @param file
+	 * @throws IOException
+	 */
+	public void matrixToBinary(DoubleMatrix<?, ?> matrix, String file,
+			Map<String, String> extra) throws IOException {
+		BinaryFormat.write(matrix, new File(getFullPath(file, extra)));
+	}
+
+	/**
+	 * Writes the map to a binary file
+	 * 
+	 * @param map
+	 * @param file
+	 * @throws IOException
+	 */
+	public void doubleMapToBinary(DoubleMap<?> map, String file,
+			Map<String, String> extra) throws IOException {
+		BinaryFormat.write(map, new File(getFullPath(file, extra)));
+	}
+
+	/**
+	 * Reads a matrix written by matrixToBinary. If the file was written with
+	 * different index sets, columns and rows are matched up by name
+	 * 
+	 * @param file
+	 * @param columns
+	 * @param rows
+	 * @return
+	 * @throws IOException
+	 */
+	public <T extends Indexed, S extends Indexed> DoubleMatrix<T, S> binaryToMatrix(
+			String file, IndexSet<T> columns, IndexSet<S> rows,
+			Map<String, String> extra) throws IOException {
+		return BinaryFormat.readDoubleMatrix(new File(getFullPath(file, extra)),
+				columns, rows);
+	}
+
+	/**
+	 * Reads a map written by doubleMapToBinary. If the file was written with
+	 * a different index set, keys are matched up by name
+	 * 
+	 * @param file
+	 * @param rows
+	 * @return
+	 * @throws IOException
+	 */
+	public <T extends Indexed> DoubleMap<T> binaryToDoubleMap(String file,
+			IndexSet<T> rows, Map<String, String> extra) throws IOException {
+		return BinaryFormat.readDoubleMap(new File(getFullPath(file, extra)),
+				rows);
+	}
+
+	/**
+	 * Converts a CSV file readable by csvToMatrix into a binary file
+	 * 
+	 * @param csvFile
+	 * @param binaryFile
+	 * @param columns
+	 * @param rows
+	 * @throws IOException
+	 */
+	public <T extends Indexed & Named, S extends Indexed & Named> void csvToBinaryMatrix(
+			String csvFile, String binaryFile, NamedIndexSet<T> columns,
+			NamedIndexSet<S> rows, Map<String, String> extra)
+			throws IOException {
+		matrixToBinary(csvToMatrix(csvFile, columns, rows, extra), binaryFile,
+				extra);
+	}
+
+	/**
+	 * Converts one column of a CSV file readable by csvToDoubleMap into a
+	 * binary file
+	 * 
+	 * @param csvFile
+	 * @param binaryFile
+	 * @param rows
+	 * @param column
+	 * @throws IOException
+	 */
+	public <T extends Indexed & Named> void csvToBinaryDoubleMap(
+			String csvFile, String binaryFile, NamedIndexSet<T> rows,
+			String column, Map<String, String> extra) throws IOException {
+		DoubleMap<T> map = csvToDoubleMap(csvFile, rows, column, extra);
+		if (map == null) {
+			throw new IOException("Couldn't read column " + column + " from "
+					+ csvFile);
+		}
+		doubleMapToBinary(map, binaryFile, extra);
+	}
+
 	/*
 	 * Functionality improvements
 	 */
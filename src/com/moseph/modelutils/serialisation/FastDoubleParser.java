@@ -0,0 +1,255 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.math.BigInteger;
+
+/**
+ * Parses decimal numbers straight from characters, without building a String first. Results
+ * are the same as Double.parseDouble (correctly rounded).
+ * 
+ * Numbers with up to 19 significant digits and small exponents are converted exactly with a
+ * single multiply or divide (Clinger's fast path). Most of the rest go through the
+ * Eisel-Lemire algorithm, which multiplies the digits by a 128 bit approximation of the power
+ * of ten. The few inputs where that can't decide the rounding (long digit strings, values
+ * next to a halfway point, subnormals, overflow) are handed to Double.parseDouble, as is
+ * anything which isn't a plain decimal number (NaN, Infinity, hex, type suffixes) so that
+ * errors are reported the same way.
+ */
+public class FastDoubleParser {
+	static final int MIN_POWER = -342;
+	static final int MAX_POWER = 308;
+	/**
+	 * Exactly representable powers of ten, for the fast path
+	 */
+	static final double[] SMALL_POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+			1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	/**
+	 * 5^q, normalised to 128 bits (high and low words), so that 10^q is
+	 * approximately (HIGH:LOW) * 2^(SHIFT + q)
+	 */
+	static final long[] HIGH = new long[MAX_POWER - MIN_POWER + 1];
+	static final long[] LOW = new long[MAX_POWER - MIN_POWER + 1];
+	static final int[] SHIFT = new int[MAX_POWER - MIN_POWER + 1];
+	/**
+	 * Powers of five which fit in 128 bits are held exactly
+	 */
+	static final int MAX_EXACT_POWER = 55;
+
+	static {
+		BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		BigInteger five = BigInteger.valueOf(5);
+		for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+			BigInteger p = five.pow(Math.abs(q));
+			int bits = p.bitLength();
+			BigInteger t;
+			int shift;
+			if (q >= 0) {
+				shift = bits - 128;
+				t = shift < 0 ? p.shiftLeft(-shift) : p.shiftRight(shift);
+			} else {
+				shift = -(bits + 127);
+				t = BigInteger.ONE.shiftLeft(bits + 127).divide(p);
+			}
+			HIGH[q - MIN_POWER] = t.shiftRight(64).longValue();
+			LOW[q - MIN_POWER] = t.and(mask).longValue();
+			SHIFT[q - MIN_POWER] = shift;
+		}
+	}
+
+	public static double parseDouble(CharSequence s) {
+		int length = s.length();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = s.charAt(i);
+		}
+		return parseDouble(chars, 0, length);
+	}
+
+	/**
+	 * Parses the characters from start (inclusive) to end (exclusive)
+	 * 
+	 * @throws NumberFormatException
+	 *             as Double.parseDouble would
+	 */
+	public static double parseDouble(char[] s, int start, int end) {
+		int i = start;
+		int last = end;
+		// Same trimming as Double.parseDouble
+		while (i < last && s[i] <= ' ') {
+			i++;
+		}
+		while (last > i && s[last - 1] <= ' ') {
+			last--;
+		}
+		boolean negative = false;
+		if (i < last && (s[i] == '-' || s[i] == '+')) {
+			negative = s[i] == '-';
+			i++;
+		}
+		long significand = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean truncated = false;
+		for (; i < last && isDigit(s[i]); i++) {
+			int d = s[i] - '0';
+			any = true;
+			if (digits < 19) {
+				significand = significand * 10 + d;
+				if (significand != 0) {
+					digits++;
+				}
+			} else {
+				exponent++;
+				truncated |= d != 0;
+			}
+		}
+		if (i < last && s[i] == '.') {
+			for (i++; i < last && isDigit(s[i]); i++) {
+				int d = s[i] - '0';
+				any = true;
+				if (digits < 19) {
+					significand = significand * 10 + d;
+					if (significand != 0) {
+						digits++;
+					}
+					exponent--;
+				} else {
+					truncated |= d != 0;
+				}
+			}
+		}
+		if (any && i < last && (s[i] == 'e' || s[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < last && (s[i] == '-' || s[i] == '+')) {
+				negativeExponent = s[i] == '-';
+				i++;
+			}
+			int e = 0;
+			boolean expDigits = false;
+			for (; i < last && isDigit(s[i]); i++) {
+				expDigits = true;
+				if (e < 100000) {
+					e = e * 10 + (s[i] - '0');
+				}
+			}
+			if (!expDigits) {
+				return fallback(s, start, end);
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!any || i != last || truncated) {
+			return fallback(s, start, end);
+		}
+		double d = toDouble(negative, significand, exponent);
+		return Double.isNaN(d) ? fallback(s, start, end) : d;
+	}
+
+	/**
+	 * significand * 10^power, or NaN if it can't be done quickly and exactly
+	 */
+	static double toDouble(boolean negative, long significand, int power) {
+		if (significand == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		if (power >= -22 && power <= 22
+				&& Long.compareUnsigned(significand, 1L << 53) <= 0) {
+			double d = (double) significand;
+			d = power < 0 ? d / SMALL_POWERS[-power] : d * SMALL_POWERS[power];
+			return negative ? -d : d;
+		}
+		if (power < MIN_POWER || power > MAX_POWER) {
+			return Double.NaN;
+		}
+		int index = power - MIN_POWER;
+		int lz = Long.numberOfLeadingZeros(significand);
+		long x = significand << lz;
+		// The top 128 bits of the 192 bit product x * (HIGH:LOW)
+		long high = HIGH[index];
+		long low = LOW[index];
+		long middle = x * high;
+		long upper = multiplyHigh(x, high);
+		long lowHigh = multiplyHigh(x, low);
+		long sum = middle + lowHigh;
+		if (Long.compareUnsigned(sum, middle) < 0) {
+			upper++;
+		}
+		middle = sum;
+		// x and HIGH both have their top bit set, so upper has at most one
+		// leading zero. Keep 54 bits: 53 for the result and one to round with
+		int top = (int) (upper >>> 63);
+		int drop = top + 9;
+		long mantissa = upper >>> drop;
+		long rest = upper & ((1L << drop) - 1);
+		if (power >= 0 && power <= MAX_EXACT_POWER) {
+			// Exact product, so only a true halfway point is a problem
+			if ((mantissa & 1) == 1 && rest == 0 && middle == 0 && x * low == 0) {
+				return Double.NaN;
+			}
+		} else if ((rest == 0 && Long.compareUnsigned(middle, 2) <= 0)
+				|| (rest == (1L << drop) - 1 && Long.compareUnsigned(middle, -3L) >= 0)) {
+			// The approximation is within a couple of units of a rounding
+			// boundary, so it can't tell which side the true value is on
+			return Double.NaN;
+		}
+		mantissa = (mantissa + 1) >>> 1;
+		int binaryExponent = drop + 1 + 128 + SHIFT[index] + power - lz;
+		if (mantissa == (1L << 53)) {
+			mantissa >>>= 1;
+			binaryExponent++;
+		}
+		int biased = binaryExponent + 52 + 1023;
+		if (biased < 1 || biased > 2046) {
+			return Double.NaN;
+		}
+		long bits = ((long) biased << 52) | (mantissa & ((1L << 52) - 1));
+		if (negative) {
+			bits |= 1L << 63;
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	static double fallback(char[] s, int start, int end) {
+		return Double.parseDouble(new String(s, start, end - start));
+	}
+
+	/**
+	 * High 64 bits of the unsigned 128 bit product of x and y
+	 */
+	static long multiplyHigh(long x, long y) {
+		long x0 = x & 0xFFFFFFFFL;
+		long x1 = x >>> 32;
+		long y0 = y & 0xFFFFFFFFL;
+		long y1 = y >>> 32;
+		long p01 = x0 * y1;
+		long carry = x1 * y0 + ((x0 * y0) >>> 32) + (p01 & 0xFFFFFFFFL);
+		return x1 * y1 + (carry >>> 32) + (p01 >>> 32);
+	}
+}
@@ -0,0 +1,418 @@
+/**
+ * This file is part of
+ * 
+ * ModellingUtilities
+ *
+ * Copyright (C) 2014 School of GeoScience, University of Edinburgh, Edinburgh, UK
+ * 
+ * ModellingUtilities is free software: You can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software 
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *  
+ * ModellingUtilities is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * School of Geoscience, University of Edinburgh, Edinburgh, UK
+ * 
+ */
+package com.moseph.modelutils.serialisation;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads a large CSV file in parallel. The data after the header is split into
+ * byte ranges which end on record boundaries, each range is read with its own
+ * CsvTokenizer on a worker pool, and the per-range results are handed back in
+ * file order so they can be merged as if the file had been read in one go.
+ * 
+ * Finding record boundaries takes two passes. First each range counts its
+ * quotes and notes the first line break it finds inside and outside quotes,
+ * in parallel. Then the quote counts of the earlier ranges say which of those
+ * is a real record boundary. This relies on quotes only being used to
+ * enclose whole fields (with "" for a quote inside a field), as CsvReader
+ * expects.
+ * 
+ * Characters are read as ISO-8859-1, as CsvReader does. Small files are read
+ * as a single range on the calling thread.
+ */
+public class ParallelCsvLoader {
+	public static final long DEFAULT_PARALLEL_THRESHOLD = 16L << 20;
+	static final long MIN_CHUNK = 1L << 20;
+	static final long MAX_CHUNK = 256L << 20;
+	/**
+	 * The most a single MappedByteBuffer can hold
+	 */
+	static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+	/**
+	 * Reads records into a result object for each range of the file
+	 */
+	public interface ChunkReader<R> {
+		/**
+		 * Makes an empty result for a range
+		 */
+		public R start();
+
+		/**
+		 * Adds the record the tokenizer is on to the result. Record numbers
+		 * from the tokenizer count from the start of the range.
+		 */
+		public void read(CsvTokenizer record, R result);
+	}
+
+	final File file;
+	final char delimiter;
+	String[] headers;
+	Map<String, Integer> headerIndex = new HashMap<String, Integer>();
+	long dataStart;
+	long chunkSize = 0;
+	long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Opens the file and reads the headers
+	 */
+	public ParallelCsvLoader(String fileName, char delimiter)
+			throws IOException {
+		this.file = new File(fileName);
+		this.delimiter = delimiter;
+		readHeaders();
+	}
+
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+
+	/**
+	 * @return the position of the named header, or -1 if there isn't one
+	 */
+	public int getIndex(String header) {
+		Integer i = headerIndex.get(header);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Files with less data than this are read on the calling thread
+	 */
+	public void setParallelThreshold(long bytes) {
+		this.parallelThreshold = bytes;
+	}
+
+	/**
+	 * Sets the size of the ranges read by each task. By default it is chosen
+	 * to give a few ranges per worker. Sizes over 2 GiB are reduced to 2 GiB
+	 */
+	public void setChunkSize(long bytes) {
+		this.chunkSize = bytes;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Reads all the records
+	 * 
+	 * @return the results for each range, in file order
+	 * @throws IOException
+	 */
+	public <R> List<R> load(final ChunkReader<R> reader) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			long[] bounds = boundaries(channel);
+			if (bounds.length == 2) {
+				List<R> results = new ArrayList<R>();
+				results.add(readStream(reader));
+				return results;
+			}
+			final AtomicBoolean abandoned = new AtomicBoolean();
+			List<Future<R>> tasks = new ArrayList<Future<R>>();
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				final long start = bounds[i];
+				final long end = bounds[i + 1];
+				if (end > start) {
+					tasks.add(pool.submit(new Callable<R>() {
+						public R call() throws IOException {
+							return read(channel, start, end, reader, abandoned);
+						}
+					}));
+				}
+			}
+			return getAll(tasks, abandoned);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Splits the data into ranges which start and end on record boundaries
+	 * 
+	 * @return the start of each range, followed by the end of the file
+	 */
+	long[] boundaries(final FileChannel channel) throws IOException {
+		long size = channel.size();
+		long length = size - dataStart;
+		long chunk = chunkSize > 0 ? chunkSize : Math.max(MIN_CHUNK, Math.min(
+				MAX_CHUNK, length / (4L * pool.getParallelism()) + 1));
+		chunk = Math.min(chunk, MAX_MAPPING);
+		if (length < parallelThreshold || length <= chunk) {
+			return new long[] { dataStart, size };
+		}
+		int n = (int) ((length + chunk - 1) / chunk);
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		List<Future<long[]>> tasks = new ArrayList<Future<long[]>>();
+		for (int i = 0; i < n; i++) {
+			final long start = dataStart + i * chunk;
+			final long end = Math.min(size, start + chunk);
+			tasks.add(pool.submit(new Callable<long[]>() {
+				public long[] call() throws IOException {
+					return abandoned.get() ? null : scan(channel, start, end);
+				}
+			}));
+		}
+		List<long[]> scans = getAll(tasks, abandoned);
+		// Quote parity at the start of each range decides which line break
+		// is the first real record boundary in it
+		long[] candidates = new long[n];
+		long quotes = 0;
+		for (int i = 0; i < n; i++) {
+			long[] scan = scans.get(i);
+			candidates[i] = (quotes & 1) == 0 ? scan[1] : scan[2];
+			quotes += scan[0];
+		}
+		long[] bounds = new long[n + 1];
+		bounds[0] = dataStart;
+		bounds[n] = size;
+		for (int i = n - 1; i > 0; i--) {
+			bounds[i] = candidates[i] >= 0 ? candidates[i] : bounds[i + 1];
+		}
+		return bounds;
+	}
+
+	/**
+	 * @return the number of quotes in the range, and the position after the
+	 *         first line break with an even and an odd number of quotes
+	 *         before it (-1 if there isn't one)
+	 */
+	static long[] scan(FileChannel channel, long start, long end)
+			throws IOException {
+		ByteBuffer bytes = channel.map(MapMode.READ_ONLY, start, end - start);
+		long quotes = 0;
+		long even = -1;
+		long odd = -1;
+		int length = bytes.limit();
+		for (int i = 0; i < length; i++) {
+			byte b = bytes.get(i);
+			if (b == '"') {
+				quotes++;
+			} else if (b == '\n' || b == '\r') {
+				if ((quotes & 1) == 0) {
+					if (even < 0) {
+						even = start + i + 1;
+					}
+				} else if (odd < 0) {
+					odd = start + i + 1;
+				}
+			}
+		}
+		return new long[] { quotes, even, odd };
+	}
+
+	<R> R read(FileChannel channel, long start, long end,
+			ChunkReader<R> reader, AtomicBoolean abandoned) throws IOException {
+		return read(new Latin1Reader(channel, start, end), reader, abandoned);
+	}
+
+	/**
+	 * Reads all the data as a single range, streaming it rather than mapping
+	 * it, so there's no limit on its size
+	 */
+	<R> R readStream(ChunkReader<R> reader) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			long skip = dataStart;
+			while (skip > 0) {
+				long skipped = in.skip(skip);
+				if (skipped <= 0) {
+					break;
+				}
+				skip -= skipped;
+			}
+			return read(new InputStreamReader(in, "ISO-8859-1"), reader,
+					new AtomicBoolean());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads all the records from chars, stopping early (with a partial
+	 * result) if abandoned is set
+	 */
+	<R> R read(Reader chars, ChunkReader<R> reader, AtomicBoolean abandoned)
+			throws IOException {
+		R result = reader.start();
+		CsvTokenizer tokenizer = new CsvTokenizer(chars, delimiter);
+		while (!abandoned.get() && tokenizer.readRecord()) {
+			reader.read(tokenizer, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the header record, and finds where the data starts
+	 */
+	void readHeaders() throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		StringBuilder header = new StringBuilder();
+		long position = 0;
+		try {
+			boolean quoted = false;
+			int b;
+			while ((b = in.read()) >= 0) {
+				position++;
+				if (b == '"') {
+					quoted = !quoted;
+				} else if (!quoted && (b == '\n' || b == '\r')) {
+					if (header.length() > 0) {
+						break;
+					}
+					continue;
+				}
+				header.append((char) b);
+			}
+		} finally {
+			in.close();
+		}
+		dataStart = position;
+		CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(
+				header.toString()), delimiter);
+		tokenizer.readHeaders();
+		headers = tokenizer.getHeaders();
+		for (int i = 0; i < headers.length; i++) {
+			headerIndex.put(headers[i], i);
+		}
+	}
+
+	/**
+	 * Collects the results of the tasks, in order. If one fails, the others
+	 * are told to give up, and are waited for before the failure is passed
+	 * on, so none are still using the file once it has been closed.
+	 */
+	static <R> List<R> getAll(List<Future<R>> tasks, AtomicBoolean abandoned)
+			throws IOException {
+		List<R> results = new ArrayList<R>(tasks.size());
+		boolean done = false;
+		try {
+			for (Future<R> task : tasks) {
+				results.add(get(task));
+			}
+			done = true;
+			return results;
+		} finally {
+			if (!done) {
+				abandoned.set(true);
+				awaitAll(tasks);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the tasks to finish, ignoring their results and failures
+	 */
+	static void awaitAll(List<? extends Future<?>> tasks) {
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+			}
+		}
+	}
+
+	static <R> R get(Future<R> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading CSV", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Reads a range of a file as ISO-8859-1 characters. The range is mapped a
+	 * window at a time, as a single mapping can't be more than 2 GiB
+	 */
+	static class Latin1Reader extends Reader {
+		final FileChannel channel;
+		final long end;
+		long position;
+		ByteBuffer bytes;
+
+		Latin1Reader(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read(char[] chars, int offset, int length)
+				throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (bytes == null || !bytes.hasRemaining()) {
+				if (position >= end) {
+					return -1;
+				}
+				long window = Math.min(MAX_MAPPING, end - position);
+				bytes = channel.map(MapMode.READ_ONLY, position, window);
+				position += window;
+			}
+			int n = Math.min(length, bytes.remaining());
+			for (int i = 0; i < n; i++) {
+				chars[offset + i] = (char) (bytes.get() & 0xFF);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
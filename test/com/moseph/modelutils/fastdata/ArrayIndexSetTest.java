@@ -1,5 +1,7 @@
 package com.moseph.modelutils.fastdata;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import static com.moseph.modelutils.fastdata.Columns.*;
 import static org.junit.Assert.*;
@@ -13,6 +15,74 @@ public class ArrayIndexSetTest
 		ArrayIndexSet<Indexed> ais = new ArrayIndexSet<Indexed>( cols );
 		assertEquals( 5, ais.size() );
 		assertEquals( 4, ais.getMaxIndex() );
+		assertEquals( 5, ais.getStorageSize() );
+		assertArrayEquals( new int[] { 0, 1, 2, 3, 4 }, ais.getSlots() );
+		assertNull( ais.getSlotTable() );
+	}
+	
+	@Test
+	public void testCompactIndexSet()
+	{
+		ArrayIndexSet<Columns> ais = new ArrayIndexSet<Columns>( Arrays.asList( E, B ), true );
+		assertEquals( 2, ais.size() );
+		assertEquals( 4, ais.getMaxIndex() );
+		assertEquals( 2, ais.getStorageSize() );
+		assertArrayEquals( new int[] { 4, 1 }, ais.getIndices() );
+		assertArrayEquals( new int[] { 0, 1 }, ais.getSlots() );
+		assertEquals( 1, ais.getSlotTable()[1] );
+		
+		DoubleMap<Columns> map = new DoubleMap<Columns>( ais );
+		assertEquals( 2, map.getAll().length );
+		map.put( B, 3 );
+		map.add( E, 5 );
+		assertEquals( 3, map.get( B ), 0.0001 );
+		assertEquals( 5, map.get( E ), 0.0001 );
+		assertEquals( 8, map.getTotal(), 0.0001 );
+		assertEquals( E, map.getMax() );
+		assertEquals( B, map.getMin() );
+		
+		IntMap<Columns> ints = new IntMap<Columns>( ais );
+		ints.add( B, 2 );
+		ints.add( E, 1 );
+		assertEquals( 3, ints.getTotal() );
+		assertEquals( B, ints.getMax() );
+		
+		DoubleMatrix<Columns, Rows> m = new DoubleMatrix<Columns, Rows>( ais, new ArrayIndexSet<Rows>( Rows.rows ) );
+		assertEquals( 2, m.getAll().length );
+		m.put( E, Rows.X, 2 );
+		m.put( B, Rows.Z, 4 );
+		assertEquals( 2, m.getColumnTotal( E ), 0.0001 );
+		assertEquals( 4, m.getRowTotal( Rows.Z ), 0.0001 );
+		assertEquals( B, m.getMaxCol() );
+		assertEquals( Rows.Z, m.getMaxRow() );
+		assertEquals( 4, m.getColumn( B ).get( Rows.Z ), 0.0001 );
+		DoubleMatrix<Columns, Rows> copy = m.duplicate();
+		m.copyInto( copy );
+		assertEquals( 2, copy.get( E, Rows.X ), 0.0001 );
+	}
+
+	@Test
+	public void testSetAlgebra()
+	{
+		ArrayIndexSet<Columns> abc = new ArrayIndexSet<Columns>( A, B, C );
+		ArrayIndexSet<Columns> ce = new ArrayIndexSet<Columns>( E, C );
+		assertTrue( abc.containsKey( B ) );
+		assertFalse( abc.containsKey( E ) );
+		assertFalse( abc.containsKey( null ) );
+		assertFalse( abc.containsIndex( -1 ) );
+		abc.getMembers().set( E.getIndex() );
+		assertFalse( abc.containsKey( E ) );
+		
+		assertEquals( Arrays.asList( A, B, C, E ), abc.union( ce ).getList() );
+		assertEquals( Arrays.asList( C ), abc.intersection( ce ).getList() );
+		assertEquals( Arrays.asList( A, B ), abc.difference( ce ).getList() );
+		assertEquals( 1, abc.difference( ce ).getMaxIndex() );
+		
+		NamedArrayIndexSet<Columns> named = new NamedArrayIndexSet<Columns>( Arrays.asList( A, B, C ), true );
+		NamedArrayIndexSet<Columns> sub = named.difference( ce );
+		assertEquals( B, sub.forName( "B" ) );
+		assertNull( sub.forName( "C" ) );
+		assertTrue( sub.isCompact() );
 	}
 
 }
@@ -0,0 +1,73 @@
+package com.moseph.modelutils.fastdata;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import de.cesr.uranus.core.URandomService;
+import de.cesr.uranus.core.UranusRandomService;
+
+public class ConcurrentDoubleMapTest
+{
+	static class Cell implements Indexed
+	{
+		int index;
+		Cell( int index ) { this.index = index; }
+		public int getIndex() { return index; }
+	}
+	
+	@Test
+	public void testParallelAdds()
+	{
+		final List<Cell> cells = new ArrayList<Cell>();
+		for( int i = 0; i < 5000; i++ ) {
+			cells.add( new Cell( i ) );
+		}
+		IndexSet<Cell> set = new ArrayIndexSet<Cell>( cells );
+		final ConcurrentDoubleMap<Cell> map = new ConcurrentDoubleMap<Cell>( set, 1 );
+		IntStream.range( 0, 100000 ).parallel().forEach( i -> map.add( cells.get( i % 5000 ), 1 ) );
+		assertEquals( 5000 + 100000, map.getTotal(), 0 );
+		assertEquals( 21, map.get( cells.get( 17 ) ), 0 );
+		
+		//Reads after further adds see them, and put overrides what went before
+		IntStream.range( 0, 5000 ).parallel().forEach( i -> map.increment( cells.get( i ) ) );
+		map.put( cells.get( 0 ), 0 );
+		assertEquals( 22, map.get( cells.get( 1 ) ), 0 );
+		assertEquals( 0, map.get( cells.get( 0 ) ), 0 );
+		
+		//Bulk operations merge pending additions on both sides
+		DoubleMap<Cell> target = new DoubleMap<Cell>( set );
+		map.add( cells.get( 0 ), 5 );
+		map.copyInto( target );
+		assertEquals( 5, target.get( cells.get( 0 ) ), 0 );
+		
+		map.release();
+		map.add( cells.get( 0 ), 1 );
+		map.flush();
+		assertEquals( 6, map.data[0], 0 );
+	}
+
+	@Test
+	public void testSampleAfterAdds()
+	{
+		List<Cell> cells = new ArrayList<Cell>();
+		for( int i = 0; i < 2; i++ ) {
+			cells.add( new Cell( i ) );
+		}
+		ConcurrentDoubleMap<Cell> map = new ConcurrentDoubleMap<Cell>( cells );
+		UranusRandomService rService = URandomService.getURandomService();
+		map.put( cells.get( 0 ), 1 );
+		assertEquals( cells.get( 0 ), map.sample( rService, null ) );
+
+		//Buffered additions have to be flushed before the alias table is reused
+		map.add( cells.get( 0 ), -1 );
+		map.add( cells.get( 1 ), 5 );
+		for( int i = 0; i < 100; i++ ) {
+			assertEquals( cells.get( 1 ), map.sample( rService, null ) );
+		}
+	}
+}
@@ -9,6 +9,9 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import static com.moseph.modelutils.fastdata.Columns.*;
 
+import de.cesr.uranus.core.URandomService;
+import de.cesr.uranus.core.UranusRandomService;
+
 public class DoubleMapTest
 {
 	@Test
@@ -63,4 +66,145 @@ public class DoubleMapTest
 		assertEquals( 0, t.getTotal(), 0.0001  );
 	}
 	
+	@Test
+	public void testBulkOperations()
+	{
+		IndexSet<Columns> set = new ArrayIndexSet<Columns>( cols );
+		DoubleMap<Columns> a = new DoubleMap<Columns>( set, 1, 2, 3, 4, 5 );
+		DoubleMap<Columns> b = new DoubleMap<Columns>( set, 5, 4, 3, 2, 1 );
+		DoubleMap<Columns> t = new DoubleMap<Columns>( set );
+		
+		assertEquals( 5+8+9+8+5, a.dotProduct( b ), 0.0001 );
+		a.copyInto( t );
+		assertEquals( 15, t.getTotal(), 0.0001 );
+		b.addInto( t );
+		assertEquals( 30, t.getTotal(), 0.0001 );
+		assertEquals( 6, t.get( C ), 0.0001 );
+		a.subtractInto( b, t );
+		assertEquals( -4, t.get( A ), 0.0001 );
+		assertEquals( 4, t.get( E ), 0.0001 );
+		assertEquals( E, t.getMax() );
+		a.multiplyInto( 2, t );
+		assertEquals( 30, t.getTotal(), 0.0001 );
+		
+		//Different index sets go through the generic path
+		DoubleMap<Columns> other = new DoubleMap<Columns>( cols );
+		b.copyInto( other );
+		assertEquals( a.dotProduct( b ), a.dotProduct( other ), 0.0001 );
+		
+		//Index sets with gaps only touch their own keys
+		IndexSet<Columns> gappy = new ArrayIndexSet<Columns>( A, C, E );
+		DoubleMap<Columns> g1 = new DoubleMap<Columns>( gappy, 1 );
+		DoubleMap<Columns> g2 = new DoubleMap<Columns>( gappy );
+		g1.addInto( g2 );
+		assertEquals( 1, g2.get( C ), 0.0001 );
+		assertEquals( 0, g2.get( B ), 0.0001 );
+		assertEquals( 3, g1.dotProduct( g2 ), 0.0001 );
+	}
+	
+	@Test
+	public void testIncrementalTotal()
+	{
+		DoubleMap<Columns> t = new DoubleMap<Columns>( cols );
+		t.setIncrementalTotal( true );
+		t.put( A, 1e12 );
+		assertEquals( 1e12, t.getTotal(), 0 );
+		for( int i = 0; i < 1000; i++ )
+		{
+			t.add( B, 0.1 );
+			t.add( C, -0.05 );
+			t.getTotal();
+		}
+		assertEquals( 1e12 + 50, t.getTotal(), 1e-4 );
+		t.put( A, 2 );
+		assertEquals( 52, t.getTotal(), 1e-9 );
+		assertEquals( 52 / 5.0, t.getAverage(), 1e-9 );
+		t.put( D, Double.POSITIVE_INFINITY );
+		assertEquals( Double.POSITIVE_INFINITY, t.getTotal(), 0 );
+		t.put( D, 0 );
+		assertEquals( 52, t.getTotal(), 1e-9 );
+		t.clear();
+		assertEquals( 0, t.getTotal(), 0 );
+	}
+	
+	@Test
+	public void testSampling()
+	{
+		UranusRandomService rService = URandomService.getURandomService();
+		DoubleMap<Columns> t = new DoubleMap<Columns>( cols );
+		assertNull( t.sample( rService, null ) );
+		t.put( A, 1 );
+		t.put( C, 3 );
+		t.put( D, -2 );
+		IntMap<Columns> counts = new IntMap<Columns>( cols );
+		for( int i = 0; i < 40000; i++ ) {
+			counts.increment( t.sample( rService, null ) );
+		}
+		assertEquals( 0, counts.get( B ) );
+		assertEquals( 0, counts.get( D ) );
+		assertEquals( 0.25, counts.get( A ) / 40000.0, 0.02 );
+		assertEquals( 0.75, counts.get( C ) / 40000.0, 0.02 );
+		
+		//Changing the map rebuilds the table
+		t.put( C, 0 );
+		assertEquals( A, t.sample( rService, null ) );
+		
+		//Absolute probabilities leave room for null
+		t.put( A, 0.5 );
+		int nulls = 0;
+		for( int i = 0; i < 10000; i++ ) {
+			if( t.sample( true, rService, null ) == null ) {
+				nulls++;
+			}
+		}
+		assertEquals( 0.5, nulls / 10000.0, 0.03 );
+	}
+	
+	@Test
+	public void testSnapshot() throws InterruptedException
+	{
+		List<DoubleMatrixTest.Cell> cells = DoubleMatrixTest.keys( 5000 );
+		final DoubleMap<DoubleMatrixTest.Cell> map = new DoubleMap<DoubleMatrixTest.Cell>( cells, 1 );
+		map.put( cells.get( 10 ), 11 );
+		final DoubleMapSnapshot<DoubleMatrixTest.Cell> snap = map.snapshot();
+		
+		map.put( cells.get( 10 ), 0 );
+		map.add( cells.get( 4000 ), 5 );
+		assertEquals( 11, snap.get( cells.get( 10 ) ), 0 );
+		assertEquals( 1, snap.get( cells.get( 4000 ) ), 0 );
+		assertEquals( 5010, snap.getTotal(), 0 );
+		assertEquals( cells.get( 10 ), snap.getMax() );
+		assertEquals( 5004, map.getTotal(), 0 );
+		
+		final DoubleMapSnapshot<DoubleMatrixTest.Cell> second = map.snapshot();
+		map.clear();
+		assertEquals( 5010, snap.toDoubleMap().getTotal(), 0 );
+		assertEquals( 5004, second.getTotal(), 0 );
+		assertEquals( 6, second.get( cells.get( 4000 ) ), 0 );
+		snap.release();
+		second.release();
+		
+		//Readers see a consistent total while the map keeps changing
+		final DoubleMapSnapshot<DoubleMatrixTest.Cell> third = map.snapshot();
+		final boolean[] ok = { true };
+		Thread reader = new Thread( () -> {
+			for( int i = 0; i < 50; i++ )
+			{
+				double total = 0;
+				for( DoubleMatrixTest.Cell c : third.getKeys() ) {
+					total += third.get( c );
+				}
+				if( total != 5000 ) {
+					ok[0] = false;
+				}
+			}
+		} );
+		reader.start();
+		for( int i = 0; i < 100000; i++ ) {
+			map.add( cells.get( i % 5000 ), 1 );
+		}
+		reader.join();
+		assertTrue( ok[0] );
+		assertEquals( 105000, map.getTotal(), 0 );
+	}
 }
@@ -2,7 +2,9 @@ package com.moseph.modelutils.fastdata;
 
 import static org.junit.Assert.*;
 
+import java.nio.DoubleBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.*;
 
@@ -101,6 +103,378 @@ public class DoubleMatrixTest
 
 
 	
+	@Test
+	public void testFusedAggregates()
+	{
+		IndexSet<Columns> c = new ArrayIndexSet<Columns>( cs );
+		IndexSet<Rows> r = new ArrayIndexSet<Rows>( rs );
+		DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( c, r );
+		fill(d, new double[][] {
+			{ 1, 2, 3, 9 },
+			{ 5 ,-6, 7, 8 },
+			{ 9, 9, -6, 12 }
+		});
+		DoubleMap<Rows> rowW = new DoubleMap<Rows>( r );
+		rowW.put( Y, 2 );
+		d.setRowWeightings( rowW );
+		
+		assertEquals( 53, d.getTotal(), 0.0001 );
+		assertEquals( 29, d.getColumnTotal( D ), 0.0001 );
+		assertEquals( 14, d.getRowTotal( Y ), 0.0001 );
+		assertEquals( 16, d.getWeightedColTotal( D ), 0.0001 );
+		assertEquals( 28, d.getWeightedRowTotal( Y ), 0.0001 );
+		assertEquals( 12, d.getMax(), 0 );
+		assertEquals( D, d.getMaxCol() );
+		assertEquals( Z, d.getMaxRow() );
+		//Ties go to the first cell in column-major order
+		assertEquals( -6, d.getMin(), 0 );
+		assertEquals( B, d.getMinCol() );
+		assertEquals( Y, d.getMinRow() );
+		
+		for( FlatDoubleMatrix.Layout layout : FlatDoubleMatrix.Layout.values() )
+		{
+			FlatDoubleMatrix<Columns, Rows> f = FlatDoubleMatrix.fromDoubleMatrix( d, layout );
+			f.setRowWeightings( rowW );
+			assertEquals( 53, f.getTotal(), 0.0001 );
+			assertEquals( 16, f.getWeightedColTotal( D ), 0.0001 );
+			assertEquals( 28, f.getWeightedRowTotal( Y ), 0.0001 );
+			assertEquals( B, f.getMinCol() );
+			assertEquals( Y, f.getMinRow() );
+			assertEquals( D, f.getMaxCol() );
+		}
+	}
+	
+	@Test
+	public void testIncrementalTotals()
+	{
+		DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( cols, rows );
+		d.setIncrementalTotals( true );
+		DoubleMap<Columns> colW = new DoubleMap<Columns>( cols, 1 );
+		colW.put( B, 3 );
+		d.setColumnWeightings( colW );
+		fill(d, new double[][] {
+			{ 1, 2, 3, 4 },
+			{ 5 ,6, 7, 8 },
+			{ 9, 10, 11, 12 }
+		});
+		assertEquals( 78, d.getTotal(), 0.0001 );
+		double oldB = d.getColumnTotal( B );
+		DoubleMapSnapshot<Columns> colSnapshot = d.colTotals.snapshot();
+		
+		d.put( B, Y, 1 );
+		d.add( D, Z, 2.5 );
+		assertFalse( d.dirtyTotal );
+		assertEquals( oldB, colSnapshot.get( B ), 0 );
+		assertEquals( 75.5, d.getTotal(), 0.0001 );
+		assertEquals( 13, d.getColumnTotal( B ), 0.0001 );
+		assertEquals( 44.5, d.getRowTotal( Z ), 0.0001 );
+		assertEquals( 39, d.getWeightedColTotal( B ), 0.0001 );
+		assertEquals( 23, d.getWeightedRowTotal( Y ), 0.0001 );
+		assertEquals( 26.5, d.getColumnTotal( D ), 0.0001 );
+		assertEquals( 14.5, d.getMax(), 0 );
+		
+		d.add( A, X, Double.POSITIVE_INFINITY );
+		assertTrue( d.dirtyTotal );
+		assertEquals( Double.POSITIVE_INFINITY, d.getTotal(), 0 );
+	}
+	
+	@Test
+	public void testParallelAggregation()
+	{
+		List<Cell> cols = keys( 200 );
+		List<Cell> rows = keys( 1000 );
+		DoubleMatrix<Cell, Cell> d = new DoubleMatrix<Cell, Cell>( cols, rows );
+		Random r = new Random( 42 );
+		for( Cell c : cols ) {
+			for( Cell row : rows ) {
+				d.put( c, row, r.nextDouble() );
+			}
+		}
+		d.put( cols.get( 7 ), rows.get( 500 ), 2 );
+		d.put( cols.get( 150 ), rows.get( 20 ), -1 );
+		d.setColumnWeightings( new DoubleMap<Cell>( cols, 0.5 ) );
+		
+		d.setParallelThreshold( Long.MAX_VALUE );
+		double sequential = d.getTotal();
+		double rowTotal = d.getRowTotal( rows.get( 3 ) );
+		double colTotal = d.getWeightedColTotal( cols.get( 3 ) );
+		
+		double[] totals = new double[2];
+		int[] threads = { 1, 4 };
+		for( int i = 0; i < threads.length; i++ )
+		{
+			d.setParallelThreshold( 0 );
+			d.setPool( new ForkJoinPool( threads[i] ) );
+			d.dirty();
+			totals[i] = d.getTotal();
+			assertEquals( sequential, totals[i], 1e-6 );
+			assertEquals( rowTotal, d.getRowTotal( rows.get( 3 ) ), 1e-9 );
+			assertEquals( colTotal, d.getWeightedColTotal( cols.get( 3 ) ), 1e-9 );
+			assertEquals( cols.get( 7 ), d.getMaxCol() );
+			assertEquals( rows.get( 500 ), d.getMaxRow() );
+			assertEquals( cols.get( 150 ), d.getMinCol() );
+		}
+		assertEquals( Double.doubleToLongBits( totals[0] ), Double.doubleToLongBits( totals[1] ) );
+	}
+	
+	static List<Cell> keys( int n )
+	{
+		List<Cell> keys = new ArrayList<Cell>();
+		for( int i = 0; i < n; i++ ) {
+			keys.add( new Cell( i ) );
+		}
+		return keys;
+	}
+	
+	static class Cell implements Indexed
+	{
+		int index;
+		Cell( int index ) { this.index = index; }
+		public int getIndex() { return index; }
+	}
+	
+	@Test
+	public void testMatrixVectorProducts()
+	{
+		IndexSet<Columns> c = new ArrayIndexSet<Columns>( cs );
+		IndexSet<Rows> r = new ArrayIndexSet<Rows>( rs );
+		DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( c, r );
+		fill(d, new double[][] {
+			{ 1, 2, 3, 4 },
+			{ 5 ,6, 7, 8 },
+			{ 9, 10, 11, 12 }
+		});
+		DoubleMap<Columns> v = new DoubleMap<Columns>( c, 1 );
+		v.put( B, 2 );
+		DoubleMap<Rows> w = new DoubleMap<Rows>( r, 1 );
+		w.put( Z, -1 );
+		
+		DoubleMap<Rows> dv = d.multiply( v );
+		assertEquals( 12, dv.get( X ), 0 );
+		assertEquals( 32, dv.get( Y ), 0 );
+		assertEquals( 52, dv.get( Z ), 0 );
+		assertEquals( 96, dv.getTotal(), 0 );
+		
+		DoubleMap<Columns> wd = d.leftMultiply( w );
+		assertEquals( -3, wd.get( A ), 0 );
+		assertEquals( 0, wd.get( D ), 0 );
+		
+		assertEquals( -8, d.bilinear( v, w ), 0 );
+		
+		//Generic version, and keys from a map with a different index set
+		FlatDoubleMatrix<Columns, Rows> f = FlatDoubleMatrix.fromDoubleMatrix( d, FlatDoubleMatrix.Layout.ROW_MAJOR );
+		DoubleMap<Columns> other = new DoubleMap<Columns>( Arrays.asList( B, A, D, C ), 1 );
+		other.put( B, 2 );
+		assertEquals( dv.toMap(), f.multiply( other ).toMap() );
+		DoubleMap<Columns> target = new DoubleMap<Columns>( Arrays.asList( A, B, C, D ) );
+		f.leftMultiplyInto( w, target );
+		assertEquals( wd.toMap(), target.toMap() );
+		assertEquals( -8, f.bilinear( other, w ), 0 );
+	}
+	
+	@Test
+	public void testInPlaceProducts()
+	{
+		List<Cell> keys = keys( 2 );
+		Cell a = keys.get( 0 ), b = keys.get( 1 );
+		DoubleMatrix<Cell, Cell> m = new DoubleMatrix<Cell, Cell>( keys, keys );
+		m.put( a, a, 1 );
+		m.put( b, a, 2 );
+		m.put( a, b, 3 );
+		m.put( b, b, 4 );
+		DoubleMap<Cell> v = new DoubleMap<Cell>( keys, 1 );
+		v.put( b, 2 );
+		m.multiplyInto( v, v );
+		assertEquals( 5, v.get( a ), 0 );
+		assertEquals( 11, v.get( b ), 0 );
+		assertEquals( 16, v.getTotal(), 0 );
+		
+		m.leftMultiplyInto( v, v );
+		assertEquals( 38, v.get( a ), 0 );
+		assertEquals( 54, v.get( b ), 0 );
+	}
+	
+	@Test
+	public void testViews()
+	{
+		IndexSet<Columns> c = new ArrayIndexSet<Columns>( cs );
+		IndexSet<Rows> r = new ArrayIndexSet<Rows>( rs );
+		DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( c, r );
+		fill(d, new double[][] {
+			{ 1, 2, 3, 4 },
+			{ 5 ,6, 7, 8 },
+			{ 9, 10, 11, 12 }
+		});
+		ColumnView<Columns, Rows> col = d.getColumnView( B );
+		assertEquals( 6, col.getDouble( Y ), 0 );
+		assertEquals( 18, col.getDoubleTotal(), 0 );
+		assertEquals( Z, col.getMax() );
+		
+		col.putDouble( Z, 0 );
+		assertEquals( 0, d.get( B, Z ), 0 );
+		assertEquals( 8, col.getDoubleTotal(), 0 );
+		assertEquals( Y, col.getMax() );
+		assertEquals( 8, d.getColumnTotal( B ), 0 );
+		
+		col.setColumn( D );
+		assertEquals( 24, col.getDoubleTotal(), 0 );
+		assertEquals( d.getColumn( D ).toMap(), col.toMap() );
+		
+		RowView<Columns, Rows> row = d.getReadOnlyRowView( X );
+		assertEquals( 10, row.getDoubleTotal(), 0 );
+		assertEquals( d.getRow( X ).dotProduct( d.getRow( Y ) ), row.dotProduct( d.getRowView( Y ) ), 0 );
+		d.add( A, X, 1 );
+		assertEquals( 2, row.getDouble( A ), 0 );
+		try
+		{
+			row.putDouble( A, 3 );
+			fail( "Read only view should not be writable" );
+		}
+		catch( UnsupportedOperationException e ) {}
+		
+		d.getRowView( Z ).clear();
+		assertEquals( 0, d.getRowTotal( Z ), 0 );
+	}
+	
+	@Test
+	public void testSnapshot()
+	{
+		DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( cols, rows );
+		d.put( A, X, 1 );
+		d.put( C, Y, 2 );
+		DoubleMatrixSnapshot<Columns, Rows> s = d.snapshot();
+		d.put( A, X, 10 );
+		d.add( E, Z, 3 );
+		assertEquals( 1, s.get( A, X ), 0 );
+		assertEquals( 0, s.get( E, Z ), 0 );
+		assertEquals( 3, s.getTotal(), 0 );
+		assertEquals( 2, s.getColumnTotal( C ), 0 );
+		assertEquals( 15, d.getTotal(), 0 );
+		
+		d.clear();
+		assertEquals( 2, s.toDoubleMatrix().get( C, Y ), 0 );
+		try
+		{
+			s.put( A, X, 1 );
+			fail( "Snapshots should not be modifiable" );
+		}
+		catch( UnsupportedOperationException e ) {}
+		s.release();
+	}
+	
+	@Test
+	public void testSharedSnapshot()
+	{
+		//Many readers of one snapshot all see the finished aggregates
+		List<Cell> keys = keys( 300 );
+		DoubleMatrix<Cell, Cell> d = new DoubleMatrix<Cell, Cell>( keys, keys, 1 );
+		final DoubleMatrixSnapshot<Cell, Cell> s = d.snapshot();
+		d.put( keys.get( 0 ), keys.get( 0 ), 301 );
+		for( int i = 0; i < 20; i++ )
+		{
+			final DoubleMatrixSnapshot<Cell, Cell> fresh = d.snapshot();
+			double sum = keys.parallelStream().mapToDouble( k -> fresh.getRowTotal( k ) + s.getColumnTotal( k ) ).sum();
+			assertEquals( 2 * 300 * 300 + 300, sum, 0 );
+			fresh.release();
+		}
+		s.release();
+	}
+	
+	@Test
+	public void testBulkImportExport()
+	{
+		List<Cell> cols = keys( 70 );
+		List<Cell> rows = keys( 130 );
+		DoubleMatrix<Cell, Cell> d = new DoubleMatrix<Cell, Cell>( cols, rows );
+		d.put( cols.get( 0 ), rows.get( 0 ), 1 );
+		assertEquals( 1, d.getTotal(), 0 );
+		
+		//Row-major source, goes through the blocked transpose
+		double[] rowMajor = new double[70 * 130];
+		for( int r = 0; r < 130; r++ ) {
+			for( int c = 0; c < 70; c++ ) {
+				rowMajor[r * 70 + c] = c * 1000 + r;
+			}
+		}
+		d.importFrom( rowMajor, 0, 1, 70, 0, 0, 70, 130 );
+		assertEquals( 69 * 1000 + 129, d.get( cols.get( 69 ), rows.get( 129 ) ), 0 );
+		double total = 0;
+		for( double v : rowMajor ) {
+			total += v;
+		}
+		assertEquals( total, d.getTotal(), 1e-6 );
+		
+		//Column-major export of a sub-block, then back in as row-major
+		double[] block = new double[2 + 3 * 4];
+		d.exportTo( block, 2, 4, 1, 10, 20, 3, 4 );
+		assertEquals( 10 * 1000 + 20, block[2], 0 );
+		assertEquals( 12 * 1000 + 23, block[2 + 2 * 4 + 3], 0 );
+		double[] t = new double[12];
+		d.exportTo( t, 0, 1, 3, 10, 20, 3, 4 );
+		assertEquals( 12 * 1000 + 23, t[3 * 3 + 2], 0 );
+		
+		DoubleBuffer b = DoubleBuffer.allocate( 12 );
+		b.put( t ).flip();
+		DoubleMatrix<Cell, Cell> e = new DoubleMatrix<Cell, Cell>( cols, rows );
+		e.importFrom( b, 0, 1, 3, 0, 0, 3, 4 );
+		assertEquals( 0, b.position() );
+		assertEquals( 11 * 1000 + 22, e.get( cols.get( 1 ), rows.get( 2 ) ), 0 );
+		DoubleBuffer out = DoubleBuffer.allocate( 12 );
+		e.exportTo( out, 0, 4, 1, 0, 0, 3, 4 );
+		assertEquals( 11 * 1000 + 22, out.get( 4 + 2 ), 0 );
+		
+		try
+		{
+			d.importFrom( rowMajor, 0, 1, 70, 1, 0, 70, 130 );
+			fail( "Block outside the matrix should be rejected" );
+		}
+		catch( IllegalArgumentException ex ) {}
+		
+		//A source too short for the block is rejected before anything is written
+		DoubleMatrix<Cell, Cell> f = new DoubleMatrix<Cell, Cell>( cols, rows );
+		assertEquals( 0, f.getTotal(), 0 );
+		double[] ones = new double[5];
+		Arrays.fill( ones, 1 );
+		try
+		{
+			f.importFrom( ones, 0, 1, 2, 0, 0, 2, 3 );
+			fail( "Source too short for the block should be rejected" );
+		}
+		catch( IllegalArgumentException ex ) {}
+		try
+		{
+			f.importFrom( DoubleBuffer.wrap( ones ), 4, -1, -2, 0, 0, 2, 3 );
+			fail( "Negative strides past the start of the source should be rejected" );
+		}
+		catch( IllegalArgumentException ex ) {}
+		assertEquals( 0, f.get( cols.get( 0 ), rows.get( 0 ) ), 0 );
+		assertEquals( 0, f.getTotal(), 0 );
+		try
+		{
+			f.exportTo( new double[5], 0, 1, 2, 0, 0, 2, 3 );
+			fail( "Target too short for the block should be rejected" );
+		}
+		catch( IllegalArgumentException ex ) {}
+		
+		DoubleMatrix<Columns, Rows> m = new DoubleMatrix<Columns, Rows>( Columns.cols, Rows.rows );
+		m.getTotal();
+		double[][] in = new double[m.data[0].length][m.data.length];
+		in[Y.getIndex()][C.getIndex()] = 5;
+		m.putT( in );
+		assertEquals( 5, m.get( C, Y ), 0 );
+		assertEquals( 5, m.getTotal(), 0 );
+		try
+		{
+			m.putT( new double[m.data[0].length][m.data.length - 1] );
+			fail( "Rows too short for the matrix should be rejected" );
+		}
+		catch( IllegalArgumentException ex ) {}
+		assertEquals( 5, m.get( C, Y ), 0 );
+		assertEquals( 5, m.getTotal(), 0 );
+		m.put( new double[m.data.length][m.data[0].length] );
+		assertEquals( 0, m.getTotal(), 0 );
+	}
+	
 	public void fill( DoubleMatrix<Columns, Rows> map, double[][] values )
 	{
 		for( int i = 0; i < values.length; i++ )
@@ -0,0 +1,41 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.moseph.modelutils.fastdata.FlatDoubleMatrix.Layout;
+
+public class FlatDoubleMatrixTest
+{
+	@Test
+	public void testLayouts()
+	{
+		for( Layout layout : Layout.values() )
+		{
+			FlatDoubleMatrix<Columns, Rows> d = new FlatDoubleMatrix<Columns, Rows>( cols, rows, layout );
+			d.put( A, X, 1 );
+			d.put( B, Y, 6 );
+			d.add( B, Y, 2 );
+			d.put( E, Z, 3 );
+			assertEquals( 8, d.get( B, Y ), 0 );
+			assertEquals( 8, d.data[d.offset( B, Y )], 0 );
+			assertEquals( 12, d.getTotal(), 0 );
+			assertEquals( 8, d.getColumnTotal( B ), 0 );
+			assertEquals( 3, d.getRowTotal( Z ), 0 );
+			assertEquals( 3, d.getRow( Z ).get( E ), 0 );
+			assertEquals( 8, d.getColumn( B ).get( Y ), 0 );
+			assertEquals( B, d.getMaxCol() );
+			
+			DoubleMatrix<Columns, Rows> m = d.toDoubleMatrix();
+			assertEquals( 8, m.get( B, Y ), 0 );
+			assertEquals( d.toMap(), FlatDoubleMatrix.fromDoubleMatrix( m, layout ).toMap() );
+		}
+		FlatDoubleMatrix<Columns, Rows> row = new FlatDoubleMatrix<Columns, Rows>( cols, rows, Layout.ROW_MAJOR );
+		assertEquals( 1, row.getColStride() );
+		FlatDoubleMatrix<Columns, Rows> col = new FlatDoubleMatrix<Columns, Rows>( cols, rows, Layout.COLUMN_MAJOR );
+		assertEquals( 1, col.getRowStride() );
+	}
+}
@@ -0,0 +1,40 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FloatMatrixTest
+{
+	@Test
+	public void testMatrix()
+	{
+		FloatMatrix<Columns, Rows> d = new FloatMatrix<Columns, Rows>( cols, rows );
+		d.put( A, X, 1.5 );
+		d.put( B, Y, 6 );
+		d.add( B, Y, 0.25 );
+		assertEquals( 6.25, d.get( B, Y ), 0 );
+		assertEquals( 7.75, d.getTotal(), 0 );
+		assertEquals( 6.25, d.getColumnTotal( B ), 0 );
+		assertEquals( B, d.getMaxCol() );
+		d.put( C, Z, 0.1 );
+		assertEquals( 0.1, d.toDoubleMatrix().get( C, Z ), 1e-7 );
+		assertEquals( 0.1, d.get( C, Z ), 1e-7 );
+		assertTrue( 0.1 != d.get( C, Z ) );
+	}
+	
+	@Test
+	public void testMap()
+	{
+		FloatMap<Columns> m = new FloatMap<Columns>( cols, 1 );
+		assertEquals( 5, m.getTotal(), 0 );
+		m.put( C, 4 );
+		m.add( A, 2 );
+		assertEquals( 10, m.getTotal(), 0 );
+		assertEquals( C, m.getMax() );
+		assertEquals( 3, m.toDoubleMap().get( A ), 0 );
+		assertEquals( m.toMap(), m.copy().toMap() );
+	}
+}
@@ -119,4 +119,38 @@ public class IntMapTest
 		assertEquals( 0, t1.getTotal() );
 		assertEquals( initial.getTotal(), t2.getTotal() );
 	}
+	
+	@Test
+	public void testIncrementalTotal()
+	{
+		IntMap<Columns> t = new IntMap<Columns>( cols );
+		t.setIncrementalTotal( true );
+		t.put( A, 4 );
+		assertEquals( 4, t.getTotal() );
+		t.add( B, 3 );
+		t.put( A, 1 );
+		assertEquals( 4, t.getTotal() );
+		t.increment( E );
+		assertEquals( 5, t.getTotal() );
+		assertEquals( 1, t.getAverage(), 0.0001 );
+		assertEquals( B, t.getMax() );
+	}
+	
+	@Test
+	public void testRandomConsume()
+	{
+		IntMap<Columns> t = new IntMap<Columns>( cols );
+		t.put( A, 10 );
+		t.put( C, 5 );
+		IntMap<Columns> drawn = new IntMap<Columns>( cols );
+		for( int i = 0; i < 15; i++ ) {
+			drawn.increment( t.consume( URandomService.getURandomService(), null ) );
+		}
+		assertEquals( 0, t.getTotal() );
+		assertEquals( 10, drawn.get( A ) );
+		assertEquals( 5, drawn.get( C ) );
+		assertEquals( null, t.consume( URandomService.getURandomService(), null ) );
+		t.put( D, -2 );
+		assertEquals( null, t.consume( URandomService.getURandomService(), null ) );
+	}
 }
@@ -0,0 +1,88 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MappedDoubleMatrixTest
+{
+	@Test
+	public void testCheckpointAndReopen() throws IOException
+	{
+		File f = File.createTempFile( "matrix", ".fdat" );
+		f.deleteOnExit();
+		NamedArrayIndexSet<Columns> c = new NamedArrayIndexSet<Columns>( cols );
+		NamedArrayIndexSet<Rows> r = new NamedArrayIndexSet<Rows>( Arrays.asList( X, Y, Z ) );
+		
+		MappedDoubleMatrix<Columns, Rows> m = MappedDoubleMatrix.create( f, c, r, 1 );
+		assertEquals( 15, m.getTotal(), 0 );
+		m.put( B, Y, 5 );
+		m.add( E, Z, 2 );
+		m.force();
+		m.close();
+		assertTrue( m.isClosed() );
+		try
+		{
+			m.force();
+			fail( "Closed matrix can't be forced" );
+		}
+		catch( IllegalStateException e ) {}
+		
+		MappedDoubleMatrix<Columns, Rows> reopened = MappedDoubleMatrix.open( f, c, r );
+		assertEquals( 5, reopened.get( B, Y ), 0 );
+		assertEquals( 3, reopened.get( E, Z ), 0 );
+		assertEquals( 21, reopened.getTotal(), 0 );
+		assertEquals( 7, reopened.getRowTotal( Z ), 0 );
+		reopened.put( A, X, -1 );
+		assertEquals( -1, reopened.toDoubleMatrix().get( A, X ), 0 );
+		reopened.close();
+		
+		try
+		{
+			MappedDoubleMatrix.open( f, c, new NamedArrayIndexSet<Rows>( Arrays.asList( Y, X, Z ) ) );
+			fail( "Should not open with different row keys" );
+		}
+		catch( IOException e ) {}
+	}
+	
+	static class Cell implements Indexed
+	{
+		int index;
+		Cell( int index ) { this.index = index; }
+		public int getIndex() { return index; }
+	}
+	
+	@Test
+	public void testWideMatrix() throws IOException
+	{
+		//More columns than the default limit on the number of mappings a process can have
+		File f = File.createTempFile( "matrix", ".fdat" );
+		f.deleteOnExit();
+		List<Cell> cells = new ArrayList<Cell>();
+		for( int i = 0; i < 100000; i++ ) {
+			cells.add( new Cell( i ) );
+		}
+		IndexSet<Cell> c = new ArrayIndexSet<Cell>( cells );
+		NamedArrayIndexSet<Rows> r = new NamedArrayIndexSet<Rows>( Arrays.asList( X, Y ) );
+		MappedDoubleMatrix<Cell, Rows> m = MappedDoubleMatrix.create( f, c, r, 0 );
+		assertEquals( 1, m.windows.length );
+		m.put( cells.get( 99999 ), Y, 4 );
+		m.put( cells.get( 0 ), X, 1 );
+		m.close();
+		
+		MappedDoubleMatrix<Cell, Rows> reopened = MappedDoubleMatrix.open( f, c, r );
+		assertEquals( 4, reopened.get( cells.get( 99999 ), Y ), 0 );
+		assertEquals( 0, reopened.get( cells.get( 99999 ), X ), 0 );
+		assertEquals( 5, reopened.getTotal(), 0 );
+		reopened.close();
+		f.delete();
+	}
+}
@@ -0,0 +1,48 @@
+package com.moseph.modelutils.fastdata;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.*;
+
+import org.junit.*;
+
+import com.csvreader.CsvReader;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+
+public class MatrixCsvLoaderTest
+{
+	@Test
+	public void testLoading() throws Exception
+	{
+		NamedMatrix<Columns, Rows> m = new NamedMatrix<Columns, Rows>( Columns.cols, Rows.rows );
+		m.put( E, Z, 5 );
+		assertEquals( 5, m.getTotal(), 0 );
+		
+		CsvReader reader = new CsvReader( new StringReader( "Row, C, Q, A\nX, 1, 7, 2\nW, 3, 3, 3\nY, , 9, 4\n" ) );
+		reader.readHeaders();
+		MatrixCsvLoader<Columns, Rows> loader = new MatrixCsvLoader<Columns, Rows>( m, m.colIndexes, m.rowIndexes );
+		assertEquals( 2, loader.load( reader ) );
+		assertEquals( 1, m.get( C, X ), 0 );
+		assertEquals( 2, m.get( A, X ), 0 );
+		assertEquals( 0, m.get( C, Y ), 0 );
+		assertEquals( 4, m.get( A, Y ), 0 );
+		assertEquals( 12, m.getTotal(), 0 );
+		assertEquals( 4, m.getRowTotal( Y ), 0 );
+		assertEquals( Arrays.asList( Z ), loader.getMissingRows() );
+	}
+	
+	@Test
+	public void testEmptyFile() throws Exception
+	{
+		NamedMatrix<Columns, Rows> m = new NamedMatrix<Columns, Rows>( Columns.cols, Rows.rows );
+		m.put( E, Z, 5 );
+		CsvReader reader = new CsvReader( new StringReader( "" ) );
+		reader.readHeaders();
+		MatrixCsvLoader<Columns, Rows> loader = new MatrixCsvLoader<Columns, Rows>( m, m.colIndexes, m.rowIndexes );
+		assertEquals( 0, loader.load( reader ) );
+		assertEquals( 5, m.getTotal(), 0 );
+	}
+}
@@ -0,0 +1,69 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class OffHeapDoubleMatrixTest
+{
+	@Test
+	public void testMatrix()
+	{
+		OffHeapDoubleMatrix<Columns, Rows> d = new OffHeapDoubleMatrix<Columns, Rows>( cols, rows );
+		d.put( A, X, 1 );
+		d.put( B, Y, 6 );
+		d.add( B, Y, 1 );
+		d.increment( D, Z );
+		assertEquals( 7, d.get( B, Y ), 0.0001 );
+		assertEquals( 9, d.getTotal(), 0.0001 );
+		assertEquals( 7, d.getColumnTotal( B ), 0.0001 );
+		assertEquals( 1, d.getRowTotal( Z ), 0.0001 );
+		assertEquals( B, d.getMaxCol() );
+		assertEquals( Y, d.getMaxRow() );
+		
+		DoubleMatrix<Columns, Rows> onHeap = d.toDoubleMatrix();
+		assertEquals( 7, onHeap.get( B, Y ), 0.0001 );
+		assertEquals( 9, onHeap.getTotal(), 0.0001 );
+		
+		OffHeapDoubleMatrix<Columns, Rows> copy = d.duplicate();
+		onHeap.copyInto( copy );
+		assertEquals( d.toMap(), copy.toMap() );
+		
+		d.clear();
+		assertEquals( 0, d.getTotal(), 0.0001 );
+		d.close();
+		copy.close();
+		assertTrue( d.isClosed() );
+		d.close();
+		try
+		{
+			d.get( A, X );
+			fail( "Closed matrix should not be readable" );
+		}
+		catch( IllegalStateException e ) {}
+	}
+	
+	@Test
+	public void testMap()
+	{
+		OffHeapDoubleMap<Columns> m = new OffHeapDoubleMap<Columns>( cols, 1 );
+		assertEquals( 5, m.getTotal(), 0.0001 );
+		m.put( C, 4 );
+		m.add( A, 2 );
+		assertEquals( 10, m.getTotal(), 0.0001 );
+		assertEquals( C, m.getMax() );
+		DoubleMap<Columns> onHeap = m.toDoubleMap();
+		assertEquals( 3, onHeap.get( A ), 0.0001 );
+		assertEquals( onHeap.dotProduct( onHeap ), m.dotProduct( onHeap ), 0.0001 );
+		m.close();
+		assertTrue( m.isClosed() );
+		try
+		{
+			m.put( A, 1 );
+			fail( "Closed map should not be writable" );
+		}
+		catch( IllegalStateException e ) {}
+	}
+}
@@ -0,0 +1,69 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.cesr.uranus.core.URandomService;
+import de.cesr.uranus.core.UranusRandomService;
+
+public class PopulationMapTest
+{
+	@Test
+	public void testCounts()
+	{
+		PopulationMap<Columns> p = new PopulationMap<Columns>( cols, 2 );
+		assertEquals( 10, p.getTotal() );
+		p.put( B, 5 );
+		p.add( D, 3 );
+		p.increment( E );
+		assertEquals( 17, p.getTotal() );
+		assertEquals( 2 + 5 + 2, p.getCumulativeCount( C ) );
+		assertEquals( A, p.keyForRank( 0 ) );
+		assertEquals( B, p.keyForRank( 2 ) );
+		assertEquals( B, p.keyForRank( 6 ) );
+		assertEquals( C, p.keyForRank( 7 ) );
+		assertEquals( E, p.keyForRank( 16 ) );
+		assertEquals( null, p.keyForRank( 17 ) );
+		assertEquals( B, p.getMax() );
+		p.clear();
+		assertEquals( 10, p.getTotal() );
+		assertEquals( C, p.keyForRank( 5 ) );
+	}
+	
+	@Test
+	public void testDraining()
+	{
+		UranusRandomService rService = URandomService.getURandomService();
+		PopulationMap<Columns> p = new PopulationMap<Columns>( cols );
+		p.put( A, 300 );
+		p.put( C, 100 );
+		p.put( E, 1 );
+		IntMap<Columns> drawn = new IntMap<Columns>( cols );
+		while( p.getTotal() > 0 ) {
+			drawn.increment( p.consume( rService, null ) );
+		}
+		assertEquals( 300, drawn.get( A ) );
+		assertEquals( 0, drawn.get( B ) );
+		assertEquals( 100, drawn.get( C ) );
+		assertEquals( 1, drawn.get( E ) );
+		assertNull( p.sample( rService, null ) );
+	}
+	
+	@Test
+	public void testSharedIndexSet()
+	{
+		IndexSet<Columns> be = new ArrayIndexSet<Columns>( Arrays.asList( B, E ), true );
+		PopulationMap<Columns> p = new PopulationMap<Columns>( be, 3 );
+		assertEquals( 2, p.size() );
+		assertEquals( 6, p.getTotal() );
+		p.add( E, 2 );
+		assertEquals( B, p.keyForRank( 2 ) );
+		assertEquals( E, p.keyForRank( 3 ) );
+		assertEquals( E, p.keyForRank( 7 ) );
+		assertNull( p.keyForRank( 8 ) );
+	}
+}
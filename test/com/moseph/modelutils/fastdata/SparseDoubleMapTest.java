@@ -0,0 +1,70 @@
+package com.moseph.modelutils.fastdata;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SparseDoubleMapTest
+{
+	static class Cell implements Indexed
+	{
+		int index;
+		Cell( int index ) { this.index = index; }
+		public int getIndex() { return index; }
+		public String toString() { return "Cell" + index; }
+	}
+	
+	@Test
+	public void testSparseAndDense()
+	{
+		List<Cell> cells = new ArrayList<Cell>();
+		for( int i = 0; i < 100; i++ ) {
+			cells.add( new Cell( i * 1000 ) );
+		}
+		IndexSet<Cell> set = new ArrayIndexSet<Cell>( cells );
+		SparseDoubleMap<Cell> map = new SparseDoubleMap<Cell>( set );
+		DoubleMap<Cell> reference = new DoubleMap<Cell>( set );
+		for( int i = 0; i < 100; i += 3 )
+		{
+			map.put( cells.get( i ), i );
+			map.add( cells.get( i ), 0.5 );
+			reference.put( cells.get( i ), i + 0.5 );
+		}
+		assertFalse( map.isDense() );
+		assertEquals( 34, map.getStoredCount() );
+		assertEquals( reference.getTotal(), map.getTotal(), 0.0001 );
+		assertEquals( reference.getMax(), map.getMax() );
+		assertEquals( 0, map.get( cells.get( 1 ) ), 0 );
+		assertTrue( map.same( reference ) );
+		assertTrue( reference.same( map.toDoubleMap() ) );
+		
+		map.clear();
+		assertEquals( 0, map.getTotal(), 0 );
+		assertEquals( 0, map.getStoredCount() );
+	}
+	
+	@Test
+	public void testSwitchToDense()
+	{
+		List<Cell> cells = new ArrayList<Cell>();
+		for( int i = 0; i < 20; i++ ) {
+			cells.add( new Cell( i ) );
+		}
+		SparseDoubleMap<Cell> map = new SparseDoubleMap<Cell>( new ArrayIndexSet<Cell>( cells ), 1, 0.5 );
+		assertEquals( 20, map.getTotal(), 0 );
+		for( int i = 0; i < 10; i++ ) {
+			map.put( cells.get( i ), 2 );
+		}
+		assertFalse( map.isDense() );
+		map.add( cells.get( 10 ), 2 );
+		assertTrue( map.isDense() );
+		assertEquals( 3, map.get( cells.get( 10 ) ), 0 );
+		assertEquals( 2, map.get( cells.get( 3 ) ), 0 );
+		assertEquals( 1, map.get( cells.get( 11 ) ), 0 );
+		assertEquals( 10 * 2 + 3 + 9, map.getTotal(), 0 );
+		assertEquals( cells.get( 10 ), map.getMax() );
+	}
+}
@@ -0,0 +1,62 @@
+package com.moseph.modelutils.fastdata;
+
+import static com.moseph.modelutils.fastdata.Columns.*;
+import static com.moseph.modelutils.fastdata.Rows.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SparseDoubleMatrixTest
+{
+	@Test
+	public void testAgainstDense()
+	{
+		for( double initial : new double[] { 0, 1.5 } )
+		{
+			ArrayIndexSet<Columns> c = new ArrayIndexSet<Columns>( cols );
+			ArrayIndexSet<Rows> r = new ArrayIndexSet<Rows>( Arrays.asList( X, Y, Z ) );
+			SparseDoubleMatrix<Columns, Rows> s = new SparseDoubleMatrix<Columns, Rows>( c, r, initial );
+			DoubleMatrix<Columns, Rows> d = new DoubleMatrix<Columns, Rows>( c, r, initial );
+			DoubleMap<Rows> rowW = new DoubleMap<Rows>( r, 1 );
+			rowW.put( Z, 3 );
+			s.setRowWeightings( rowW );
+			d.setRowWeightings( rowW );
+			for( AbstractDoubleMatrix<Columns, Rows> m : Arrays.<AbstractDoubleMatrix<Columns, Rows>>asList( s, d ) )
+			{
+				m.put( B, Y, 4 );
+				m.put( E, Z, -2 );
+				m.add( A, X, 7 );
+				m.put( C, X, 5 );
+				m.put( C, X, initial );
+			}
+			assertEquals( 3, s.getStoredCount() );
+			assertEquals( d.get( A, X ), s.get( A, X ), 0 );
+			assertEquals( initial, s.get( D, Y ), 0 );
+			assertEquals( d.getTotal(), s.getTotal(), 1e-9 );
+			for( Columns col : c )
+			{
+				assertEquals( d.getColumnTotal( col ), s.getColumnTotal( col ), 1e-9 );
+				assertEquals( d.getWeightedColTotal( col ), s.getWeightedColTotal( col ), 1e-9 );
+			}
+			for( Rows row : r )
+			{
+				assertEquals( d.getRowTotal( row ), s.getRowTotal( row ), 1e-9 );
+				assertEquals( d.getWeightedRowTotal( row ), s.getWeightedRowTotal( row ), 1e-9 );
+			}
+			assertEquals( d.getMax(), s.getMax(), 0 );
+			assertEquals( d.getMaxCol(), s.getMaxCol() );
+			assertEquals( d.getMin(), s.getMin(), 0 );
+			assertEquals( d.getMinCol(), s.getMinCol() );
+			assertEquals( d.getMinRow(), s.getMinRow() );
+			assertEquals( d.toMap(), s.toDoubleMatrix().toMap() );
+			assertEquals( d.toMap(), SparseDoubleMatrix.fromDoubleMatrix( d ).toMap() );
+			assertEquals( d.getColumn( B ).toMap(), s.getColumn( B ).toMap() );
+			
+			final double[] sum = { 0 };
+			s.forEachStored( ( col, row, v ) -> sum[0] += v );
+			assertEquals( 9 + initial, sum[0], 0 );
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.moseph.modelutils.serialisation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.csvreader.CsvWriter;
+import com.moseph.modelutils.fastdata.NamedMatrix;
+import com.moseph.modelutils.serialisation.EasyPersisterTest.Col;
+import com.moseph.modelutils.serialisation.EasyPersisterTest.Row;
+
+public class CsvStreamWriterTest
+{
+
+	@Test
+	public void testFormatting()
+	{
+		assertEquals("0.0", DoubleFormatter.toString(0));
+		assertEquals("-12.5", DoubleFormatter.toString(-12.5));
+		assertEquals("100.0", DoubleFormatter.toString(100));
+		assertEquals("0.001", DoubleFormatter.toString(0.001));
+		assertEquals("1.0E-4", DoubleFormatter.toString(0.0001));
+		assertEquals("1.0E7", DoubleFormatter.toString(1e7));
+		assertEquals("1.23456789E8", DoubleFormatter.toString(123456789));
+		assertEquals("0.3", DoubleFormatter.toString(0.3));
+		assertEquals("4.9E-324", DoubleFormatter.toString(Double.MIN_VALUE));
+		assertEquals("1.7976931348623157E308", DoubleFormatter.toString(Double.MAX_VALUE));
+		assertEquals("NaN", DoubleFormatter.toString(Double.NaN));
+		assertEquals("-Infinity", DoubleFormatter.toString(Double.NEGATIVE_INFINITY));
+
+		Random r = new Random(3);
+		for (int i = 0; i < 100000; i++) {
+			double d = Double.longBitsToDouble(r.nextLong());
+			if (!Double.isNaN(d)) {
+				assertEquals(d, Double.parseDouble(DoubleFormatter.toString(d)), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesCsvWriter() throws Exception
+	{
+		NamedMatrix<Col, Row> m = new NamedMatrix<Col, Row>(EasyPersisterTest.cols,
+				EasyPersisterTest.rows, 0);
+		m.put(EasyPersisterTest.A, EasyPersisterTest.X, 1.5);
+		m.put(EasyPersisterTest.C, EasyPersisterTest.Y, -3);
+		m.put(EasyPersisterTest.B, EasyPersisterTest.Z, 1e10);
+
+		File expected = File.createTempFile("expected", ".csv");
+		File actual = File.createTempFile("actual", ".csv");
+		CsvWriter old = new CsvWriter(expected.getPath());
+		m.write(old);
+		old.close();
+		CsvStreamWriter writer = new CsvStreamWriter(actual.getPath());
+		m.write(writer);
+		writer.writeRecord(new String[] { "", " a ", "b,c", "say \"hi\"", "#" });
+		writer.close();
+		old = new CsvWriter(new FileWriter(expected, true), ',');
+		old.writeRecord(new String[] { "", " a ", "b,c", "say \"hi\"", "#" });
+		old.close();
+
+		Charset latin = Charset.forName("ISO-8859-1");
+		assertEquals(new String(Files.readAllBytes(expected.toPath()), latin),
+				new String(Files.readAllBytes(actual.toPath()), latin));
+		expected.delete();
+		actual.delete();
+	}
+}
@@ -0,0 +1,40 @@
+package com.moseph.modelutils.serialisation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class CsvTokenizerTest
+{
+
+	@Test
+	public void testReading() throws Exception
+	{
+		CsvTokenizer t = new CsvTokenizer(new StringReader(
+				"Name, A ,\"B, quoted\"\r\n\r\nX, 1.5 , \"say \"\"hi\"\"\"\n\nY,,-2e3\n"));
+		assertTrue(t.readHeaders());
+		assertArrayEquals(new String[] { "Name", "A", "B, quoted" }, t.getHeaders());
+		assertEquals(2, t.getIndex("B, quoted"));
+		assertEquals(-1, t.getIndex("C"));
+
+		assertTrue(t.readRecord());
+		assertEquals(0, t.getCurrentRecord());
+		assertEquals("X", t.get(0));
+		assertEquals(1.5, t.getDouble("A"), 0);
+		assertEquals("say \"hi\"", t.get(2));
+
+		assertTrue(t.readRecord());
+		assertEquals(1, t.getCurrentRecord());
+		assertTrue(t.isEmpty(1));
+		assertTrue(t.isEmpty(5));
+		assertEquals("", t.get("C"));
+		assertEquals(-2000, t.getDouble(2), 0);
+		assertFalse(t.readRecord());
+		t.close();
+	}
+}
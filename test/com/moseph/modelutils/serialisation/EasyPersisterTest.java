@@ -1,8 +1,14 @@
 package com.moseph.modelutils.serialisation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -47,6 +53,47 @@ public class EasyPersisterTest
 		
 	}
 
+	@Test
+	public void testBinary() throws IOException
+	{
+		EasyPersister pers = new EasyPersister();
+		pers.setBaseDir( "test-data" );
+		DoubleMatrix<Col, Row> mat = pers.csvToMatrix("testMatrix.csv", cols,
+				rows, null);
+		pers.matrixToBinary( mat, "tmp/testMatrix.fdat", null );
+		DoubleMatrix<Col, Row> read = pers.binaryToMatrix( "tmp/testMatrix.fdat", cols, rows, null );
+		assertEquals( 6, read.get( C, Y ), 0 );
+		assertEquals( 45, read.getTotal(), 0 );
+		assertEquals( 15, read.getColumnTotal( B ), 0 );
+
+		// The tool numbers keys from the file, so these are matched by name
+		CsvToBinary.convertMatrix( "test-data/testMatrix.csv", "test-data/tmp/converted.fdat" );
+		read = pers.binaryToMatrix( "tmp/converted.fdat", cols, rows, null );
+		assertEquals( 8, read.get( B, Z ), 0 );
+		assertEquals( 45, read.getTotal(), 0 );
+
+		CsvToBinary.convertMap( "test-data/testMatrix.csv", "C", "test-data/tmp/converted.fdat" );
+		DoubleMap<Row> map = pers.binaryToDoubleMap( "tmp/converted.fdat", rows, null );
+		assertEquals( 6, map.get( Y ), 0 );
+		assertEquals( 18, map.getTotal(), 0 );
+
+		// Corrupt headers are reported as IOExceptions
+		byte[] bytes = Files.readAllBytes( new File( "test-data/tmp/testMatrix.fdat" ).toPath() );
+		byte[] badCount = bytes.clone();
+		ByteBuffer.wrap( badCount ).order( ByteOrder.LITTLE_ENDIAN ).putInt( 32, 1 << 30 );
+		byte[] truncated = Arrays.copyOf( bytes, 40 );
+		for( byte[] bad : new byte[][] { badCount, truncated } ) {
+			Files.write( new File( "test-data/tmp/converted.fdat" ).toPath(), bad );
+			try {
+				pers.binaryToMatrix( "tmp/converted.fdat", cols, rows, null );
+				fail( "Corrupt file should be rejected" );
+			} catch( IOException e ) {
+			}
+		}
+		new File( "test-data/tmp/testMatrix.fdat" ).delete();
+		new File( "test-data/tmp/converted.fdat" ).delete();
+	}
+
 	public static class NamedInd implements Named, Indexed
 	{
 		int index;
@@ -0,0 +1,65 @@
+package com.moseph.modelutils.serialisation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FastDoubleParserTest
+{
+
+	@Test
+	public void testAgreesWithParseDouble()
+	{
+		String[] cases = { "0", "-0", "1", "-1.5", " 12 ", "+3", "3.", ".5",
+				"0.1", "0.3", "1e22", "1e23", "1e-22", "00012.3400e-002",
+				"9007199254740993", "7.3177701707893310e+15",
+				"7.2057594037927933e+16", "2.2250738585072014E-308",
+				"4.9e-324", "1.7976931348623157e308", "1.8e308", "1e-400",
+				"123456789012345678901234567890", "NaN", "-Infinity", "1.5d" };
+		for (String s : cases) {
+			check(s);
+		}
+		Random r = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			check(Double.toString(Double.longBitsToDouble(r.nextLong())));
+			check(Long.toUnsignedString(r.nextLong() >>> r.nextInt(64)) + "e"
+					+ (r.nextInt(700) - 350));
+		}
+		// Exactly halfway between two doubles
+		for (int i = 0; i < 10000; i++) {
+			double d = Math.abs(r.nextDouble() * Math.pow(10, r.nextInt(60) - 30));
+			check(new BigDecimal(d).add(new BigDecimal(Math.nextUp(d)))
+					.divide(BigDecimal.valueOf(2)).toString());
+		}
+	}
+
+	@Test
+	public void testErrors()
+	{
+		for (String s : new String[] { "", "-", "1e", "abc", "1.2.3", "--1" }) {
+			try {
+				FastDoubleParser.parseDouble(s);
+				fail("Should not parse: '" + s + "'");
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testRange()
+	{
+		char[] chars = "x,12.5,y".toCharArray();
+		assertEquals(12.5, FastDoubleParser.parseDouble(chars, 2, 6), 0);
+	}
+
+	void check(String s)
+	{
+		double expected = Double.parseDouble(s);
+		assertEquals(s, Double.doubleToRawLongBits(expected),
+				Double.doubleToRawLongBits(FastDoubleParser.parseDouble(s)));
+	}
+}
@@ -0,0 +1,141 @@
+package com.moseph.modelutils.serialisation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ParallelCsvLoaderTest
+{
+
+	@Test
+	public void testMatchesSequentialReading() throws Exception
+	{
+		File file = File.createTempFile("parallel", ".csv");
+		Random r = new Random(5);
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+		w.write("Name,\"Value, with comma\",Note\r\n");
+		for (int i = 0; i < 5000; i++) {
+			w.write("row" + i + "," + r.nextDouble() + ",");
+			switch (r.nextInt(4)) {
+			case 0:
+				w.write("\"line\nbreak, \"\"quoted\"\"\"");
+				break;
+			case 1:
+				w.write("\"\r\n\"");
+				break;
+			default:
+				w.write("plain");
+			}
+			w.write(r.nextBoolean() ? "\n" : "\r\n");
+		}
+		w.close();
+
+		List<String> expected = new ArrayList<String>();
+		CsvTokenizer t = new CsvTokenizer(file.getPath(), ',');
+		t.readHeaders();
+		while (t.readRecord()) {
+			expected.add(t.get(0) + "|" + t.get(1) + "|" + t.get(2));
+		}
+		t.close();
+
+		ParallelCsvLoader loader = new ParallelCsvLoader(file.getPath(), ',');
+		assertArrayEquals(new String[] { "Name", "Value, with comma", "Note" },
+				loader.getHeaders());
+		loader.setParallelThreshold(0);
+		loader.setChunkSize(997);
+		ParallelCsvLoader.ChunkReader<List<String>> reader = new ParallelCsvLoader.ChunkReader<List<String>>() {
+			public List<String> start() {
+				return new ArrayList<String>();
+			}
+
+			public void read(CsvTokenizer record, List<String> result) {
+				result.add(record.get(0) + "|" + record.get(1) + "|"
+						+ record.get(2));
+			}
+		};
+		List<List<String>> chunks = loader.load(reader);
+		assertTrue(chunks.size() > 50);
+		List<String> actual = new ArrayList<String>();
+		for (List<String> chunk : chunks) {
+			actual.addAll(chunk);
+		}
+		assertEquals(expected, actual);
+
+		// A single range is streamed instead
+		loader.setParallelThreshold(Long.MAX_VALUE);
+		chunks = loader.load(reader);
+		assertEquals(1, chunks.size());
+		assertEquals(expected, chunks.get(0));
+		file.delete();
+	}
+
+	@Test
+	public void testFailureStopsOtherRanges() throws Exception
+	{
+		File file = File.createTempFile("parallel", ".csv");
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+		w.write("Name,Value\n");
+		for (int i = 0; i < 20000; i++) {
+			w.write((i == 100 ? "bad" : "row" + i) + "," + i + "\n");
+		}
+		w.close();
+
+		ParallelCsvLoader loader = new ParallelCsvLoader(file.getPath(), ',');
+		loader.setParallelThreshold(0);
+		loader.setChunkSize(4096);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		loader.setPool(pool);
+		final AtomicInteger records = new AtomicInteger();
+		try {
+			loader.load(new ParallelCsvLoader.ChunkReader<Object>() {
+				public Object start() {
+					return null;
+				}
+
+				public void read(CsvTokenizer record, Object result) {
+					if (record.get(0).equals("bad")) {
+						throw new IllegalStateException("Bad record");
+					}
+					records.incrementAndGet();
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			fail("Failure in a range should be passed on");
+		} catch (IllegalStateException e) {
+		}
+		// Nothing is still reading once load has returned
+		int seen = records.get();
+		Thread.sleep(200);
+		assertEquals(seen, records.get());
+		pool.shutdown();
+		file.delete();
+	}
+
+	@Test
+	public void testNumericMap() throws Exception
+	{
+		EasyPersister pers = new EasyPersister();
+		pers.setBaseDir("test-data");
+		pers.setParallelCsvThreshold(0);
+		Map<String, Double> map = pers.csvToNumericMap("testMatrix.csv", "Row", "B", null);
+		assertEquals(3, map.size());
+		assertEquals(8, map.get("Z"), 0);
+	}
+}